@@ -1,40 +1,51 @@
 package com.chat.client.mq;
 
+import com.chat.client.util.ClientConfig;
 import com.rabbitmq.client.*;
+import org.json.JSONObject;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Properties;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 public class MQConnection {
     private static MQConnection instance;
     private Connection connection;
-    private Channel publishChannel;
+    private Channel publishChannel; // 只由发送管线的线程使用
+    private Channel adminChannel;   // 绑定/解绑等管理操作
+    private PublishPipeline pipeline;
+    private SubscriptionDispatcher subscriptions;
+    private RpcClient rpc;
     private String exchangeName;
+    private AMQP.BasicProperties outgoing; // 发送 JSONObject 时使用的编码（contentType）
 
     private MQConnection() throws Exception {
-        InputStream input = MQConnection.class.getClassLoader().getResourceAsStream("application.properties");
-        if (input == null) throw new RuntimeException("找不到 application.properties");
-
-        Properties prop = new Properties();
-        prop.load(input);
+        if (!ClientConfig.isLoaded()) throw new RuntimeException("找不到 application.properties");
 
         ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(prop.getProperty("mq.host"));
-        factory.setPort(Integer.parseInt(prop.getProperty("mq.port")));
-        factory.setUsername(prop.getProperty("mq.username"));
-        factory.setPassword(prop.getProperty("mq.password"));
+        factory.setHost(ClientConfig.get("mq.host", "127.0.0.1"));
+        factory.setPort(ClientConfig.getInt("mq.port", 5672));
+        factory.setUsername(ClientConfig.get("mq.username", "guest"));
+        factory.setPassword(ClientConfig.get("mq.password", "guest"));
+
+        // 默认发 JSON，与旧版服务端/客户端兼容；都升级后可改为 binary
+        boolean binary = "binary".equalsIgnoreCase(ClientConfig.get("mq.codec", "json"));
+        outgoing = new AMQP.BasicProperties.Builder()
+                .contentType(binary ? MessageCodec.BINARY : MessageCodec.JSON).build();
 
         connection = factory.newConnection();
-        // publishChannel 用于发布（单channel，串行发送；如果高并发可改为 channel 池）
         publishChannel = connection.createChannel();
+        adminChannel = connection.createChannel();
 
-        exchangeName = prop.getProperty("mq.exchange");
+        exchangeName = ClientConfig.get("mq.exchange", null);
         // topic exchange
-        publishChannel.exchangeDeclare(exchangeName, BuiltinExchangeType.TOPIC, true);
+        adminChannel.exchangeDeclare(exchangeName, BuiltinExchangeType.TOPIC, true);
+        pipeline = new PublishPipeline(publishChannel, exchangeName,
+                ClientConfig.getInt("mq.outbox.capacity", 1024),
+                ClientConfig.getInt("mq.outbox.batchSize", 64));
+        subscriptions = new SubscriptionDispatcher(connection, adminChannel, exchangeName);
+        rpc = new RpcClient(publishChannel, pipeline, ClientConfig.getLong("rpc.timeoutMs", 10000));
         System.out.println("已连接 RabbitMQ，exchange=" + exchangeName);
     }
 
@@ -47,47 +58,58 @@ public class MQConnection {
         return instance;
     }
 
-    // 发送消息（routingKey 由业务层决定）
-    public synchronized void sendMessage(String routingKey, String message) throws IOException {
-        publishChannel.basicPublish(exchangeName, routingKey, null, message.getBytes(StandardCharsets.UTF_8));
-        System.out.println("已发送到 [" + routingKey + "]：" + message);
+    // 发送消息（routingKey 由业务层决定）；只入队不等网络，可以在 EDT 上直接调用
+    // 发送队列已满时抛出 IOException，消息未发送
+    public void sendMessage(String routingKey, String message) throws IOException {
+        enqueue(routingKey, null, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 按 mq.codec 编码后发送
+    public void sendMessage(String routingKey, JSONObject message) throws IOException {
+        byte[] body = MessageCodec.BINARY.equals(outgoing.getContentType())
+                ? MessageCodec.encode(message) : message.toString().getBytes(StandardCharsets.UTF_8);
+        enqueue(routingKey, outgoing, body);
+    }
+
+    // 请求/响应（direct reply-to）：future 得到解析好的服务端回复，超时或发送失败时以异常结束
+    public CompletableFuture<JSONObject> request(String routingKey, JSONObject message) {
+        byte[] body = MessageCodec.BINARY.equals(outgoing.getContentType())
+                ? MessageCodec.encode(message) : message.toString().getBytes(StandardCharsets.UTF_8);
+        return rpc.call(routingKey, outgoing.getContentType(), body);
     }
 
-    // 订阅：为每个订阅创建独立 channel（避免线程安全问题）
-    // queueName: 客户端自己要用的队列名（如果传 null 则会创建临时队列）
-    // bindingKey: topic routingKey，例如 chat.user.joe 或 chat.public 或 chat.group.*
-        public void subscribe(String queueName, String bindingKey, Consumer<String> callback) throws IOException {
-        Channel ch = connection.createChannel();
-        ch.exchangeDeclare(exchangeName, BuiltinExchangeType.TOPIC, true);
-
-        String q;
-        if (queueName == null || queueName.isEmpty()) {
-            q = ch.queueDeclare().getQueue(); // 临时独占队列
-        } else {
-            ch.queueDeclare(queueName, true, false, false, null);
-            q = queueName;
+    private void enqueue(String routingKey, AMQP.BasicProperties props, byte[] body) throws IOException {
+        if (!pipeline.offer(new PublishPipeline.Frame(routingKey, props, body))) {
+            throw new IOException("发送队列已满（" + pipeline.pending() + " 条待发），请稍后重试");
         }
+    }
 
-        ch.queueBind(q, exchangeName, bindingKey);
+    // 订阅：所有订阅共用一个消费 channel 和一个临时队列，这里只增加绑定并登记回调
+    // bindingKey: topic routingKey，例如 chat.user.joe、chat.public、chat.group.<群名>
+    // 同一个 bindingKey 重复订阅只替换回调
+    public void subscribe(String bindingKey, Consumer<String> callback) throws IOException {
+        subscriptions.subscribe(bindingKey, callback);
+    }
 
-        // 自动 ack=true 简化（若需消息可靠性改为 false 并手动 ack）
-        ch.basicConsume(q, true, (consumerTag, delivery) -> {
-            String msg = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            try {
-                callback.accept(msg);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }, consumerTag -> {});
-        System.out.println("已订阅 queue=" + q + " bind=" + bindingKey);
+    // 同 subscribe，回调直接拿到解析好的 JSONObject（二进制消息解码一次，不经过文本）
+    public void subscribeJson(String bindingKey, Consumer<JSONObject> callback) throws IOException {
+        subscriptions.subscribeJson(bindingKey, callback);
+    }
+
+    // 退订：解除绑定，例如退出群后不再接收 chat.group.<群名>
+    public void unsubscribe(String bindingKey) throws IOException {
+        subscriptions.unsubscribe(bindingKey);
     }
 
-    // 关闭（程序退出时调用）
+    // 关闭（程序退出时调用）：先把队列里的消息发完，最多等 2 秒
     public void close() {
+        pipeline.close(2000);
         try {
+            subscriptions.close();
             if (publishChannel != null && publishChannel.isOpen()) publishChannel.close();
+            if (adminChannel != null && adminChannel.isOpen()) adminChannel.close();
             if (connection != null && connection.isOpen()) connection.close();
-        } catch (IOException | TimeoutException e) {
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
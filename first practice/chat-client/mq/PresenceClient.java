@@ -0,0 +1,114 @@
+package com.chat.client.mq;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 客户端在线状态：定期向 presence.heartbeat.<用户名> 发心跳，
+ * 订阅服务端合并后的 presence.delta 广播，维护本地在线名单。
+ * 订阅增量广播之后再向 presence.request 索取完整名单（type=presence, snapshot=true），由 apply() 处理，
+ * 这样名单生成之后的变化一定能通过增量收到。
+ * 名单走回复通道、增量走订阅通道，两者到达顺序不确定：名单到达之前收到的增量先暂存，
+ * 名单替换本地状态后再按序重放，比名单新的变化不会被名单覆盖；比名单旧的增量重放后，
+ * 随后的变化自有更新的增量纠正。
+ */
+public class PresenceClient {
+    private final MQConnection mq;
+    private final String username;
+    private final long heartbeatSec;
+    private final Set<String> online = new ConcurrentSkipListSet<>();
+    private final Consumer<List<String>> onChange;
+    private final Object lock = new Object();
+    private List<JSONObject> beforeSnapshot; // 名单到达前收到的增量，名单处理后为 null
+    private ScheduledExecutorService timer;
+
+    /** onChange 在 MQ 回调线程上被调用，参数为排好序的在线名单 */
+    public PresenceClient(MQConnection mq, String username, long heartbeatSec, Consumer<List<String>> onChange) {
+        this.mq = mq;
+        this.username = username;
+        this.heartbeatSec = heartbeatSec;
+        this.onChange = onChange;
+    }
+
+    public void start() throws Exception {
+        synchronized (lock) {
+            beforeSnapshot = new ArrayList<>();
+        }
+        mq.subscribeJson("presence.delta", this::apply);
+        JSONObject req = new JSONObject();
+        req.put("username", username);
+        mq.request("presence.request", req).whenComplete((snapshot, err) -> {
+            if (err == null) {
+                apply(snapshot);
+            } else {
+                System.err.println("获取在线名单失败：" + err.getMessage());
+                synchronized (lock) {
+                    replayBuffered(); // 没有名单可等了，至少把已收到的增量用上
+                    onChange.accept(new ArrayList<>(online));
+                }
+            }
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> send("online"), 0, heartbeatSec, TimeUnit.SECONDS);
+    }
+
+    /** 退出前调用：通知服务端立即下线，而不必等 TTL 过期 */
+    public void stop() {
+        if (timer != null) timer.shutdownNow();
+        send("offline");
+    }
+
+    private void send(String status) {
+        try {
+            JSONObject hb = new JSONObject();
+            hb.put("username", username);
+            hb.put("status", status);
+            mq.sendMessage("presence.heartbeat." + username, hb);
+        } catch (Exception e) {
+            System.err.println("发送心跳失败：" + e.getMessage());
+        }
+    }
+
+    /** 处理增量广播或完整名单 */
+    public void apply(JSONObject j) {
+        synchronized (lock) {
+            if (j.optBoolean("snapshot", false)) {
+                online.clear();
+                merge(j);
+                replayBuffered();
+            } else if (beforeSnapshot != null) {
+                beforeSnapshot.add(j);
+                return;
+            } else {
+                merge(j);
+            }
+            onChange.accept(new ArrayList<>(online));
+        }
+    }
+
+    private void replayBuffered() {
+        if (beforeSnapshot == null) return;
+        for (JSONObject delta : beforeSnapshot) merge(delta);
+        beforeSnapshot = null;
+    }
+
+    private void merge(JSONObject j) {
+        JSONArray up = j.optJSONArray("online");
+        JSONArray down = j.optJSONArray("offline");
+        if (up != null) for (int i = 0; i < up.length(); i++) online.add(up.getString(i));
+        if (down != null) for (int i = 0; i < down.length(); i++) online.remove(down.getString(i));
+    }
+}
@@ -0,0 +1,100 @@
+package com.chat.client.mq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 客户端发送管线：任意线程（包括 Swing 的 EDT）只把消息放进无锁队列就返回，
+ * 由一个专门的发送线程独占 publishChannel，一次取出最多 batchSize 条连续发出。
+ * 队列有容量上限，满了 offer 直接返回 false，由调用方提示用户，而不是阻塞界面。
+ */
+class PublishPipeline {
+
+    static final class Frame {
+        final String routingKey;
+        final AMQP.BasicProperties props;
+        final byte[] body;
+
+        Frame(String routingKey, AMQP.BasicProperties props, byte[] body) {
+            this.routingKey = routingKey;
+            this.props = props;
+            this.body = body;
+        }
+    }
+
+    private final Channel channel;
+    private final String exchange;
+    private final int capacity;
+    private final int batchSize;
+    private final ConcurrentLinkedQueue<Frame> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Thread thread;
+    private volatile boolean parked;  // 发送线程是否可能在等待，生产者据此决定要不要唤醒
+    private volatile boolean running = true;
+
+    PublishPipeline(Channel channel, String exchange, int capacity, int batchSize) {
+        this.channel = channel;
+        this.exchange = exchange;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.thread = new Thread(this::loop, "mq-publisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** 入队；队列已满或管线已关闭时返回 false */
+    boolean offer(Frame frame) {
+        if (!running) return false;
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        queue.offer(frame);
+        if (parked) LockSupport.unpark(thread);
+        return true;
+    }
+
+    int pending() {
+        return size.get();
+    }
+
+    private void loop() {
+        while (running || !queue.isEmpty()) {
+            int sent = 0;
+            Frame f;
+            while (sent < batchSize && (f = queue.poll()) != null) {
+                size.decrementAndGet();
+                sent++;
+                try {
+                    channel.basicPublish(exchange, f.routingKey, f.props, f.body);
+                    System.out.println("已发送到 [" + f.routingKey + "]：" + f.body.length + " 字节");
+                } catch (Exception e) {
+                    System.err.println("发送到 [" + f.routingKey + "] 失败：" + e.getMessage());
+                }
+            }
+            if (sent == 0) {
+                // 先声明要等待再复查队列，避免与生产者的 offer 错过唤醒
+                parked = true;
+                if (queue.isEmpty() && running) LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                parked = false;
+            }
+        }
+    }
+
+    /** 停止接收新消息，把已入队的发完（最多等 timeoutMs） */
+    void close(long timeoutMs) {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) System.err.println("退出时仍有 " + size.get() + " 条消息未发送");
+    }
+}
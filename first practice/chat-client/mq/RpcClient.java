@@ -0,0 +1,68 @@
+package com.chat.client.mq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求/响应：基于 RabbitMQ direct reply-to（amq.rabbitmq.reply-to），
+ * 回复直接送回发请求的 channel，broker 上不为客户端声明任何队列。
+ * 每个请求带唯一的 correlationId，回复按它找到对应的 future；超时未回复的 future 以 TimeoutException 结束。
+ * direct reply-to 要求请求从消费 reply-to 的同一个 channel 发出，所以这里和发送管线共用 publishChannel。
+ */
+class RpcClient {
+    static final String REPLY_TO = "amq.rabbitmq.reply-to";
+
+    private final PublishPipeline pipeline;
+    private final long timeoutMs;
+    private final String idPrefix = Long.toHexString(System.currentTimeMillis()) + "-";
+    private final AtomicLong seq = new AtomicLong();
+    private final ConcurrentHashMap<String, CompletableFuture<JSONObject>> calls = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "mq-rpc-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** 必须在 publishChannel 发出第一条请求之前创建 */
+    RpcClient(Channel publishChannel, PublishPipeline pipeline, long timeoutMs) throws IOException {
+        this.pipeline = pipeline;
+        this.timeoutMs = timeoutMs;
+        publishChannel.basicConsume(REPLY_TO, true, (tag, delivery) -> {
+            AMQP.BasicProperties props = delivery.getProperties();
+            String id = props == null ? null : props.getCorrelationId();
+            CompletableFuture<JSONObject> call = id == null ? null : calls.remove(id);
+            if (call == null) return; // 已超时的迟到回复
+            try {
+                call.complete(MessageCodec.toJson(props.getContentType(), delivery.getBody()));
+            } catch (Exception e) {
+                call.completeExceptionally(e);
+            }
+        }, tag -> {});
+    }
+
+    CompletableFuture<JSONObject> call(String routingKey, String contentType, byte[] body) {
+        CompletableFuture<JSONObject> call = new CompletableFuture<>();
+        String id = idPrefix + seq.incrementAndGet();
+        calls.put(id, call);
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if (calls.remove(id, call)) call.completeExceptionally(new TimeoutException("请求超时：" + routingKey));
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        call.whenComplete((r, e) -> timeout.cancel(false));
+
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .contentType(contentType)
+                .correlationId(id)
+                .replyTo(REPLY_TO)
+                .build();
+        if (!pipeline.offer(new PublishPipeline.Frame(routingKey, props, body))) {
+            calls.remove(id);
+            call.completeExceptionally(new IOException("发送队列已满，请稍后重试"));
+        }
+        return call;
+    }
+}
@@ -0,0 +1,136 @@
+package com.chat.client.mq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 订阅复用：每个客户端只有一个消费 channel 和一个临时独占队列，
+ * 所有订阅都只是在这个队列上增减绑定，收到的消息按 routingKey 查表分发给对应的回调。
+ * - 同一个 bindingKey 重复订阅只替换回调，不会再向 broker 声明队列或绑定；
+ * - 回调表是 ConcurrentHashMap，分发时按 routingKey 直接查找，不加锁；
+ *   带 * / # 的绑定很少，找不到精确匹配时才逐个按通配规则比对；
+ * - 回调可以要文本（subscribe）或解析好的 JSONObject（subscribeJson），
+ *   后者收到二进制消息时直接解码，不先转成文本再让回调重新解析；
+ * - 消息体里的 offset（聊天记录偏移）只有服务端转发的消息才可信：没有服务端盖章（STAMP_HEADER）的消息
+ *   交给 JSON 回调前去掉 offset，其他客户端直接发布、自带 offset 的消息不会被当作已入库的消息去重。
+ * 队列随连接断开自动删除，不再为每个用户在 broker 上留下持久队列；离线期间的消息由聊天记录补齐。
+ */
+class SubscriptionDispatcher {
+
+    private final Channel consumeChannel;
+    private final Channel adminChannel;
+    private final String exchange;
+    private final String queue;
+    private final ConcurrentHashMap<String, Handler> handlers = new ConcurrentHashMap<>();
+
+    /** 服务端转发消息时盖章的消息头，与服务端 MQManager.STAMP_HEADER 一致 */
+    static final String STAMP_HEADER = "x-chat-stamp";
+
+    /** 按 contentType 把消息体转成回调需要的形式 */
+    private interface Handler {
+        void accept(AMQP.BasicProperties props, byte[] body);
+    }
+
+    SubscriptionDispatcher(Connection connection, Channel adminChannel, String exchange) throws IOException {
+        this.adminChannel = adminChannel;
+        this.exchange = exchange;
+        this.consumeChannel = connection.createChannel();
+        this.queue = consumeChannel.queueDeclare().getQueue(); // 临时独占队列
+        consumeChannel.basicConsume(queue, true,
+                (tag, delivery) -> dispatch(delivery.getEnvelope().getRoutingKey(), delivery.getProperties(), delivery.getBody()),
+                tag -> {});
+        System.out.println("已创建客户端队列 " + queue);
+    }
+
+    private void dispatch(String routingKey, AMQP.BasicProperties props, byte[] body) {
+        Handler handler = handlers.get(routingKey);
+        if (handler == null) {
+            for (Map.Entry<String, Handler> e : handlers.entrySet()) {
+                if (matches(e.getKey(), routingKey)) {
+                    handler = e.getValue();
+                    break;
+                }
+            }
+        }
+        if (handler == null) return; // 刚退订，绑定解除前已进入队列的消息
+        try {
+            handler.accept(props, body);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    void subscribe(String bindingKey, Consumer<String> callback) throws IOException {
+        bind(bindingKey, (props, body) -> callback.accept(MessageCodec.toText(contentType(props), body)));
+    }
+
+    void subscribeJson(String bindingKey, Consumer<JSONObject> callback) throws IOException {
+        bind(bindingKey, (props, body) -> {
+            JSONObject j = MessageCodec.toJson(contentType(props), body);
+            if (j.has("offset") && !stamped(props)) j.remove("offset");
+            callback.accept(j);
+        });
+    }
+
+    private static String contentType(AMQP.BasicProperties props) {
+        return props == null ? null : props.getContentType();
+    }
+
+    /** 客户端没有密钥，只能看有没有章；章的真伪由服务端消费时校验 */
+    private static boolean stamped(AMQP.BasicProperties props) {
+        return props != null && props.getHeaders() != null && props.getHeaders().get(STAMP_HEADER) != null;
+    }
+
+    /** 注册回调并绑定；已绑定过的 key 只替换回调 */
+    private void bind(String bindingKey, Handler handler) throws IOException {
+        if (handlers.put(bindingKey, handler) != null) return;
+        try {
+            synchronized (adminChannel) {
+                adminChannel.queueBind(queue, exchange, bindingKey);
+            }
+        } catch (IOException e) {
+            handlers.remove(bindingKey, handler);
+            throw e;
+        }
+        System.out.println("已订阅 bind=" + bindingKey);
+    }
+
+    /** 先解除绑定再移除回调 */
+    void unsubscribe(String bindingKey) throws IOException {
+        if (!handlers.containsKey(bindingKey)) return;
+        synchronized (adminChannel) {
+            adminChannel.queueUnbind(queue, exchange, bindingKey);
+        }
+        handlers.remove(bindingKey);
+        System.out.println("已退订 bind=" + bindingKey);
+    }
+
+    void close() throws Exception {
+        if (consumeChannel.isOpen()) consumeChannel.close();
+    }
+
+    /** AMQP topic 规则：* 匹配一个单词，# 匹配零个或多个单词 */
+    static boolean matches(String pattern, String routingKey) {
+        if (pattern.indexOf('*') < 0 && pattern.indexOf('#') < 0) return pattern.equals(routingKey);
+        return matches(pattern.split("\\."), 0, routingKey.split("\\."), 0);
+    }
+
+    private static boolean matches(String[] p, int i, String[] k, int j) {
+        if (i == p.length) return j == k.length;
+        if ("#".equals(p[i])) {
+            for (int n = j; n <= k.length; n++) {
+                if (matches(p, i + 1, k, n)) return true;
+            }
+            return false;
+        }
+        if (j == k.length) return false;
+        return ("*".equals(p[i]) || p[i].equals(k[j])) && matches(p, i + 1, k, j + 1);
+    }
+}
@@ -1,80 +1,154 @@
 package com.chat.client.ui;
 
 import com.chat.client.mq.MQConnection;
-import com.chat.client.util.FileUploader;
+import com.chat.client.mq.PresenceClient;
+import com.chat.client.util.ClientConfig;
+import com.chat.client.util.MessageCache;
+import com.chat.client.util.TransferManager;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import javax.swing.*;
 import javax.swing.event.HyperlinkEvent;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.net.URL;
+import java.io.IOException;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Properties;
+import java.util.Date;
+import java.util.List;
 
 public class ChatFrame extends JFrame {
+    private static final int SYNC_PAGE = 200; // 从本地缓存末尾向服务端补齐时每次取的条数
+
     private final String username;
-    private JTextArea chatArea;
+    private final String token; // 登录时服务端签发的会话令牌，拉取聊天记录、群操作和发群消息时证明身份
+    private MessageView chatArea;
     private JTextField inputField;
-    private JButton sendBtn, fileBtn,saveFileBtn;
-    private JComboBox<String> modeBox; // 公共 or 私聊
-    private JTextField targetField; // 私聊目标
+    private JButton sendBtn, fileBtn;
+    private JComboBox<String> modeBox; // 公共 / 私聊 / 群聊
+    private JTextField targetField; // 私聊目标或群名
 
 
     private MQConnection mq;
-
-    public ChatFrame(String username) throws Exception {
+    private final String fileHttpBase; // 服务端文件下载地址，如 http://host:8080
+    private final PresenceClient presence;
+    private final TransferManager transfers;
+    private final TransferPanel transferPanel = new TransferPanel();
+    private final DefaultListModel<String> onlineModel = new DefaultListModel<>();
+    private final MessageCache cache; // 本地消息缓存，目录不可用时为 null
+    private volatile boolean syncing;  // 聊天记录请求是从缓存末尾补齐，而不是首次加载
+    // 按服务端日志偏移去重：聊天记录加载完之前，带偏移的实时消息先暂存；加载完后只显示偏移大于 historyUpTo 的
+    private final Object liveLock = new Object();
+    private boolean loadingHistory = true;
+    private long historyUpTo = -1;
+    private final List<JSONObject> pendingLive = new ArrayList<>();
+
+    public ChatFrame(String username, String token) throws Exception {
         this.username = username;
+        this.token = token;
         this.mq = MQConnection.getInstance();
 
+        this.fileHttpBase = ClientConfig.get("file.http.base",
+                "http://" + ClientConfig.get("mq.host", "127.0.0.1") + ":" + ClientConfig.get("file.http.port", "8080"));
+        this.transfers = new TransferManager(ClientConfig.getInt("transfer.maxUploads", 2),
+                ClientConfig.getInt("transfer.maxDownloads", 3));
+
         setTitle("聊天 - " + username);
         setSize(700, 500);
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        JScrollPane sp = new JScrollPane(chatArea);
+        chatArea = new MessageView(ClientConfig.getInt("ui.scrollback", 2000), ClientConfig.getInt("ui.flushMs", 33));
+        // 先显示本地缓存的最近消息，不等服务端
+        this.cache = openCache();
+        if (cache != null) {
+            List<MessageView.Line> cached = historyLines(cache.recent(ClientConfig.getInt("cache.recent", 300)));
+            if (!cached.isEmpty()) chatArea.prepend(cached);
+        }
 
         inputField = new JTextField();
         sendBtn = new JButton("发送");
         fileBtn = new JButton("发送文件");
-        saveFileBtn=new JButton("接收文件");
 
-        modeBox = new JComboBox<>(new String[]{"公共消息", "私聊"});
+        modeBox = new JComboBox<>(new String[]{"公共消息", "私聊", "群聊"});
         targetField = new JTextField();
         targetField.setPreferredSize(new Dimension(120, 24));
-        targetField.setToolTipText("私聊目标用户名");
+        targetField.setToolTipText("私聊目标用户名 / 群名");
+        JButton joinBtn = new JButton("加入群");
+        JButton leaveBtn = new JButton("退出群");
 
         JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         topPanel.add(new JLabel("模式:"));
         topPanel.add(modeBox);
         topPanel.add(new JLabel("目标:"));
         topPanel.add(targetField);
+        topPanel.add(joinBtn);
+        topPanel.add(leaveBtn);
         topPanel.add(fileBtn);
-        topPanel.add(saveFileBtn);
 
         JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(transferPanel, BorderLayout.NORTH);
         bottom.add(inputField, BorderLayout.CENTER);
         bottom.add(sendBtn, BorderLayout.EAST);
 
+        // 在线用户列表，双击切换为与该用户私聊
+        JList<String> onlineList = new JList<>(onlineModel);
+        onlineList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                String user = onlineList.getSelectedValue();
+                if (e.getClickCount() == 2 && user != null && !user.equals(username)) {
+                    modeBox.setSelectedItem("私聊");
+                    targetField.setText(user);
+                }
+            }
+        });
+        JScrollPane onlinePane = new JScrollPane(onlineList);
+        onlinePane.setPreferredSize(new Dimension(140, 0));
+        onlinePane.setBorder(BorderFactory.createTitledBorder("在线用户"));
+
         add(topPanel, BorderLayout.NORTH);
-        add(sp, BorderLayout.CENTER);
+        add(chatArea, BorderLayout.CENTER);
         add(bottom, BorderLayout.SOUTH);
-
-        mq.subscribe("client_" + username + "_private", "chat.user." + username, this::handleMessage);
-
-        mq.subscribe("client_" + username + "_public", "chat.public", this::handleMessage);
+        add(onlinePane, BorderLayout.EAST);
+
+        presence = new PresenceClient(mq, username, ClientConfig.getLong("presence.heartbeatSec", 10),
+                users -> SwingUtilities.invokeLater(() -> {
+                    onlineModel.clear();
+                    for (String u : users) onlineModel.addElement(u);
+                }));
+
+        mq.subscribeJson("chat.user." + username, this::handleMessage);
+        mq.subscribeJson("chat.public", this::handleMessage);
+        groupRequest("list", "");
+
+        presence.start();
+        requestHistory(ClientConfig.getInt("history.limit", 50));
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                presence.stop();
+                transfers.shutdown();
+                if (cache != null) cache.close();
+                mq.close(); // 发送是异步的，退出前把下线通知等排队中的消息发完
+            }
+        });
 
         // 事件
         sendBtn.addActionListener(e -> sendMessage());
         inputField.addActionListener(e -> sendMessage());
         fileBtn.addActionListener(e -> sendFile());
+        joinBtn.addActionListener(e -> groupRequest("join", targetField.getText().trim()));
+        leaveBtn.addActionListener(e -> groupRequest("leave", targetField.getText().trim()));
     }
 
 
@@ -97,135 +171,335 @@ public class ChatFrame extends JFrame {
                 j.put("from", username);
                 j.put("to", to);
                 j.put("content", text);
-                // routing key = chat.user.<to>
-                mq.sendMessage("chat.user." + to, j.toString());
-                chatArea.append("[我→" + to + " 私聊] " + text + "\n");
+                // 由服务端写入聊天记录、带上偏移后转发到 chat.user.<to>
+                mq.sendMessage("chat.send", j);
+                chatArea.post("[我→" + to + " 私聊] " + text);
+            } else if ("群聊".equals(mode)) {
+                String room = targetField.getText().trim();
+                if (room.isEmpty()) {
+                    JOptionPane.showMessageDialog(this, "请输入群名");
+                    return;
+                }
+                JSONObject j = new JSONObject();
+                j.put("type", "group");
+                j.put("from", username);
+                j.put("room", room);
+                j.put("content", text);
+                // 由服务端检查成员身份后转发到 chat.group.<群名>，自己也会收到
+                sendGroup(j);
             } else {
                 JSONObject j = new JSONObject();
                 j.put("type", "public");
                 j.put("from", username);
                 j.put("content", text);
-                // routing key = chat.public
-                mq.sendMessage("chat.public", j.toString());
-                chatArea.append("[我 公聊] " + text + "\n");
+                // 由服务端写入聊天记录、带上偏移后转发到 chat.public
+                mq.sendMessage("chat.send", j);
+                chatArea.post("[我 公聊] " + text);
             }
             inputField.setText("");
         } catch (Exception e) {
             e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "消息发送失败：" + e.getMessage());
         }
     }
 
 
 
+    /** 在 EDT 上选好文件和发送目标，上传交给后台传输，完成后再发文件消息 */
     private void sendFile() {
-        try {
-            JFileChooser chooser = new JFileChooser();
-            int r = chooser.showOpenDialog(this);
-            if (r != JFileChooser.APPROVE_OPTION) return;
-
-            File f = chooser.getSelectedFile();
-            InputStream input = getClass().getClassLoader().getResourceAsStream("application.properties");
-
-            Properties prop = new Properties();
-            prop.load(input);
-            String host = prop.getProperty("mq.host");
-            int filePort = Integer.parseInt(prop.getProperty("file.port", "9000"));
-
-            // 上传文件（通过Socket）
-            String filePath = FileUploader.uploadFile(host, filePort, f);
-
-
-            // 构建文件消息并通过RabbitMQ发送
-            String mode = (String) modeBox.getSelectedItem();
-            JSONObject j = new JSONObject();
-            j.put("type", "file");
-            j.put("from", username);
-            j.put("filename", f.getName());
-            j.put("url", filePath);
-            j.put("timestamp", System.currentTimeMillis());
-
-            if ("私聊".equals(mode)) {
-                String to = targetField.getText().trim();
-                if (to.isEmpty()) {
-                    JOptionPane.showMessageDialog(this, "请输入目标用户名");
-                    return;
+        String mode = (String) modeBox.getSelectedItem();
+        String target = targetField.getText().trim();
+        if (("私聊".equals(mode) || "群聊".equals(mode)) && target.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "私聊".equals(mode) ? "请输入目标用户名" : "请输入群名");
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File f = chooser.getSelectedFile();
+
+        // 上传文件（通过Socket），在传输线程上进行
+        TransferManager.Transfer upload = transfers.upload(ClientConfig.get("mq.host", "127.0.0.1"),
+                ClientConfig.getInt("file.port", 9000), f);
+        transferPanel.track(upload);
+        upload.result().whenComplete((filePath, err) -> {
+            if (err != null) {
+                if (upload.state() != TransferManager.State.CANCELLED) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "文件发送失败：" + err.getMessage()));
                 }
-                j.put("to", to);
-                mq.sendMessage("chat.user." + to, j.toString());
-                chatArea.append("[我→" + to + " 发送文件] " + f.getName() + "\n");
-            } else {
-                mq.sendMessage("chat.public", j.toString());
-                chatArea.append("[我 公共发送文件] " + f.getName() + "\n");
+                return;
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "文件发送失败：" + e.getMessage());
-        }
+            try {
+                // 构建文件消息并通过RabbitMQ发送
+                JSONObject j = new JSONObject();
+                j.put("type", "file");
+                j.put("from", username);
+                j.put("filename", f.getName());
+                j.put("url", filePath);
+                j.put("timestamp", System.currentTimeMillis());
+
+                if ("私聊".equals(mode)) {
+                    j.put("to", target);
+                    mq.sendMessage("chat.send", j);
+                    chatArea.post("[我→" + target + " 发送文件] " + f.getName());
+                } else if ("群聊".equals(mode)) {
+                    j.put("room", target);
+                    j.put("kind", "file"); // 服务端会把 type 改为 group
+                    sendGroup(j);
+                } else {
+                    mq.sendMessage("chat.send", j);
+                    chatArea.post("[我 公共发送文件] " + f.getName());
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "文件发送失败：" + e.getMessage()));
+            }
+        });
     }
 
     /**
      * 消息处理方法：区分文本和文件
      */
-    private void handleMessage(String msg) {
+    private void handleMessage(JSONObject j) {
+        if (j.has("offset") && !acceptLive(j)) return;
         try {
-            JSONObject j = new JSONObject(msg);
             String type = j.optString("type", "text");
             String from = j.optString("from", j.optString("username", "unknown"));
-            if ("file".equals(type)) {
+            if ("presence".equals(type)) {
+                presence.apply(j); // 旧版服务端登录后推送的在线名单
+            } else if ("group".equals(type) && !"file".equals(j.optString("kind"))) {
+                String room = j.optString("room");
+                String content = j.optString("content", "");
+                chatArea.post("[群 " + room + "] " + from + "： " + content);
+            } else if ("file".equals(type) || "file".equals(j.optString("kind"))) {
                  String filename = j.getString("filename");
                 String url = j.getString("url");
-                String fileUrl = "http://42.193.223.68:9001" + url;
+                String fileUrl = fileHttpBase + url;
 
                 // 修复乱码
                 try {
                     final String new_filename = URLDecoder.decode(filename, "UTF-8");
                 } catch (Exception ignored) {}
 
-                // 追加文本 + 按钮
-                SwingUtilities.invokeLater(() -> {
-                    chatArea.append("[" + from + " 发送文件] " + filename + "\n");
-
-                    // 创建下载按钮
-                    System.out.println(fileUrl);
-                    saveFileBtn.addActionListener(e -> downloadFile(fileUrl, filename));
-
-                    // 插入按钮到 JTextArea 所在位置
-                    chatArea.append("\n\n");
-                });
+                // 每条文件消息自带下载动作，双击该行即可下载
+                chatArea.post("[" + from + " 发送文件] " + filename + "（双击下载）", () -> downloadFile(fileUrl, filename));
 
             } else {
                 String content = j.optString("content", "");
-                SwingUtilities.invokeLater(() -> chatArea.append("[消息] " + from + "： " + content + "\n"));
+                chatArea.post("[消息] " + from + "： " + content);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** 带偏移的实时消息：聊天记录还没加载完时暂存，返回 false；已加载完时偏移不大于记录末尾的（记录里已显示过）丢弃 */
+    private boolean acceptLive(JSONObject j) {
+        synchronized (liveLock) {
+            if (loadingHistory) {
+                pendingLive.add(j);
+                return false;
+            }
+            return j.optLong("offset", -1) > historyUpTo;
+        }
+    }
+
+    /** 聊天记录已加载到 next（失败时为 -1），放出暂存的实时消息中记录里没有的部分 */
+    private void historyLoaded(long next) {
+        List<JSONObject> held;
+        synchronized (liveLock) {
+            historyUpTo = Math.max(historyUpTo, next);
+            loadingHistory = false;
+            held = new ArrayList<>(pendingLive);
+            pendingLive.clear();
+        }
+        for (JSONObject j : held) handleMessage(j);
+    }
+
+    /**
+     * 打开窗口时向服务端拉取聊天记录（公共频道 + 自己的私聊 + 所在群），请求带登录令牌，
+     * 回复经 direct reply-to 只回到本连接。本地有缓存时只要缓存中最大偏移之后的部分，否则取最近 limit 条。
+     */
+    private void requestHistory(int limit) {
+        if (token == null) {
+            chatArea.post("[系统] 服务端未签发会话令牌，无法加载聊天记录");
+            historyLoaded(-1);
+            return;
+        }
+        long since = cache == null ? -1 : cache.lastOffset();
+        syncing = since >= 0;
+        sendHistoryRequest(since, syncing ? SYNC_PAGE : limit);
+    }
+
+    private void sendHistoryRequest(long since, int limit) {
+        JSONObject req = new JSONObject();
+        req.put("username", username);
+        req.put("token", token);
+        req.put("limit", limit);
+        if (since >= 0) req.put("since", since);
+        mq.request("history.request", req).whenComplete((j, err) -> {
+            if (err != null) {
+                chatArea.post("[系统] 加载聊天记录失败：" + err.getMessage());
+                historyLoaded(-1);
+                return;
+            }
+            try {
+                if (!"fail".equals(j.optString("status"))) {
+                    showHistory(j);
+                } else {
+                    chatArea.post("[系统] 加载聊天记录失败：" + j.optString("message"));
+                    historyLoaded(-1);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                historyLoaded(-1);
             }
+        });
+    }
+
+    /** 每个用户一个缓存目录；打不开时不用缓存，照旧从服务端加载 */
+    private MessageCache openCache() {
+        String dir = ClientConfig.get("cache.dir", System.getProperty("user.home") + File.separator + ".chat-client");
+        try {
+            return new MessageCache(dir + File.separator + URLEncoder.encode(username, "UTF-8"),
+                    ClientConfig.getLong("cache.maxBytes", 32L * 1024 * 1024));
+        } catch (Exception e) {
+            System.err.println("无法打开本地消息缓存，改为全部从服务端加载：" + e.getMessage());
+            return null;
+        }
+    }
+
+    private void groupRequest(String action, String room) {
+        if (!"list".equals(action) && room.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "请输入群名");
+            return;
+        }
+        try {
+            JSONObject req = new JSONObject();
+            req.put("action", action);
+            req.put("username", username);
+            req.put("token", token);
+            req.put("room", room);
+            mq.request("group.request", req).whenComplete((j, err) -> {
+                if (err != null) {
+                    chatArea.post("[系统] 群操作失败：" + err.getMessage());
+                    return;
+                }
+                try {
+                    onGroupResult(j);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /** 群消息带上登录令牌发到 group.send，服务端校验后回复；失败原因显示在聊天区 */
+    private void sendGroup(JSONObject j) {
+        j.put("token", token);
+        mq.request("group.send", j).whenComplete((resp, err) -> {
+            if (err != null) {
+                chatArea.post("[系统] 群消息发送失败：" + err.getMessage());
+            } else if (!"success".equals(resp.optString("status"))) {
+                chatArea.post("[系统] " + resp.optString("message", "群消息发送失败"));
+            }
+        });
+    }
+
+    /** 群操作回复：加入/退出时增减 chat.group.<群名> 的订阅，登录时按 list 结果恢复全部订阅 */
+    private void onGroupResult(JSONObject j) throws Exception {
+        String action = j.optString("action");
+        String room = j.optString("room");
+        if (!"success".equals(j.optString("status"))) {
+            chatArea.post("[系统] " + j.optString("message", "群操作失败"));
+            return;
+        }
+        if ("list".equals(action)) {
+            JSONArray rooms = j.getJSONArray("rooms");
+            for (int i = 0; i < rooms.length(); i++) mq.subscribeJson("chat.group." + rooms.getString(i), this::handleMessage);
+        } else if ("join".equals(action)) {
+            mq.subscribeJson("chat.group." + room, this::handleMessage);
+            chatArea.post("[系统] 已加入群 " + room);
+        } else if ("leave".equals(action)) {
+            mq.unsubscribe("chat.group." + room);
+            chatArea.post("[系统] 已退出群 " + room);
+        }
+    }
+
+    /**
+     * 聊天记录回复：写入本地缓存；首次加载时放到最前面，补齐时接在缓存内容之后，一页取满就接着取下一页。
+     * 最后一页处理完后放出暂存的实时消息，记录里已有的（偏移不大于 next）不再重复显示。
+     */
+    private void showHistory(JSONObject j) throws IOException {
+        JSONArray messages = j.getJSONArray("messages");
+        List<MessageCache.Entry> entries = new ArrayList<>(messages.length());
+        for (int i = 0; i < messages.length(); i++) {
+            JSONObject item = messages.getJSONObject(i);
+            entries.add(new MessageCache.Entry(item.getLong("offset"), item.getLong("ts"),
+                    item.optString("conv"), item.getString("msg")));
+        }
+        if (cache != null) {
+            try {
+                cache.append(entries);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        long next = j.optLong("next", -1);
+        if (!syncing) {
+            List<MessageView.Line> lines = historyLines(entries);
+            if (!lines.isEmpty()) chatArea.prepend(lines); // 放在不带偏移的实时消息之前
+            historyLoaded(next);
+            return;
+        }
+        // 缓存末尾之后的消息，接在缓存内容之后
+        for (MessageView.Line line : historyLines(entries)) chatArea.post(line);
+        if (messages.length() >= SYNC_PAGE) {
+            sendHistoryRequest(next, SYNC_PAGE);
+        } else {
+            historyLoaded(next);
+        }
+    }
+
+    private List<MessageView.Line> historyLines(List<MessageCache.Entry> entries) {
+        SimpleDateFormat fmt = new SimpleDateFormat("MM-dd HH:mm");
+        List<MessageView.Line> lines = new ArrayList<>(entries.size());
+        for (MessageCache.Entry item : entries) {
+            JSONObject m = new JSONObject(item.message);
+            String from = m.optString("from", "unknown");
+            String to = m.has("room") ? "群 " + m.getString("room") : m.optString("to", "");
+            boolean isFile = "file".equals(m.optString("type")) || "file".equals(m.optString("kind"));
+            String text = isFile ? "[文件] " + m.optString("filename") : m.optString("content", "");
+            String line = "[历史 " + fmt.format(new Date(item.timestamp)) + "] "
+                    + (to.isEmpty() ? from : from + "→" + to) + "： " + text;
+            if (isFile && m.has("url")) {
+                String fileUrl = fileHttpBase + m.getString("url");
+                String filename = m.optString("filename");
+                lines.add(new MessageView.Line(line + "（双击下载）", () -> downloadFile(fileUrl, filename)));
+            } else {
+                lines.add(new MessageView.Line(line));
+            }
+        }
+        return lines;
+    }
+
+    /** 在 EDT 上选保存位置，下载交给后台传输，进度显示在传输列表里 */
     private void downloadFile(String url, String filename) {
         JFileChooser chooser = new JFileChooser();
         chooser.setSelectedFile(new File(filename));
-        if (chooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) return;
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
 
         File saveFile = chooser.getSelectedFile();
-
-        new Thread(() -> {
-            try {
-                URL u = new URL(url);
-                try (InputStream in = u.openStream();
-                     FileOutputStream out = new FileOutputStream(saveFile)) {
-                    byte[] buf = new byte[8192];
-                    int len;
-                    while ((len = in.read(buf)) > 0) {
-                        out.write(buf, 0, len);
-                    }
-                }
-                JOptionPane.showMessageDialog(null, "下载完成！");
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(null, "下载失败: " + ex.getMessage());
+        TransferManager.Transfer download = transfers.download(url, saveFile);
+        transferPanel.track(download);
+        download.result().whenComplete((path, err) -> {
+            if (err == null) {
+                chatArea.post("[系统] 已下载 " + filename + " 到 " + path);
+            } else if (download.state() != TransferManager.State.CANCELLED) {
+                chatArea.post("[系统] 下载 " + filename + " 失败：" + err.getMessage());
             }
-        }).start();
+        });
     }
-    
+
 }
\ No newline at end of file
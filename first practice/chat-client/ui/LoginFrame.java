@@ -5,6 +5,8 @@ import org.json.JSONObject;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 public class LoginFrame extends JFrame {
     private JTextField usernameField;
@@ -53,35 +55,30 @@ public class LoginFrame extends JFrame {
 
             MQConnection mq = MQConnection.getInstance();
 
-            // 先订阅 response 队列（只订阅一次），以便收到服务器响应
-            String responseBind = "user.response." + username;
-            mq.subscribe("client_" + username, responseBind, msg -> {
-                try {
-                    JSONObject resp = new JSONObject(msg);
-                    String status = resp.optString("status", "fail");
-                    String message = resp.optString("message", "");
-                    System.out.println("收到登录响应: " + resp.toString());
-
-                    SwingUtilities.invokeLater(() -> {
-                        JOptionPane.showMessageDialog(this, message);
-                        if ("success".equals(status)) {
-                            // 登录成功：打开 ChatFrame
-                            try {
-                                new ChatFrame(username).setVisible(true);
-                                this.dispose();
-                            } catch (Exception ex) {
-                                ex.printStackTrace();
-                            }
-                        }
-                    });
-                } catch (Exception ex) {
-                    ex.printStackTrace();
+            // 请求/响应走 direct reply-to，回复直接回到本连接，不需要为用户名声明队列
+            mq.request("user.request.login", req).whenComplete((resp, err) -> {
+                if (err != null) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "登录失败：" + describe(err)));
+                    return;
                 }
+                String status = resp.optString("status", "fail");
+                String message = resp.optString("message", "");
+                System.out.println("收到登录响应: " + resp.toString());
+
+                SwingUtilities.invokeLater(() -> {
+                    JOptionPane.showMessageDialog(this, message);
+                    if ("success".equals(status)) {
+                        // 登录成功：打开 ChatFrame
+                        try {
+                            new ChatFrame(username, resp.optString("token", null)).setVisible(true);
+                            this.dispose();
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                });
             });
-
-            // 发送登录请求到 server 处理的 routing key（server 监听 user.request.login）
-            mq.sendMessage("user.request.login", req.toString());
-            System.out.println("已发送登录请求: " + req.toString());
+            System.out.println("已发送登录请求: " + username);
 
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -105,25 +102,20 @@ public class LoginFrame extends JFrame {
 
             MQConnection mq = MQConnection.getInstance();
 
-            // 订阅注册响应队列（同登录响应风格）
-            String responseBind = "user.response." + username;
-            mq.subscribe("client_" + username, responseBind, msg -> {
-                try {
-                    JSONObject resp = new JSONObject(msg);
-                    String status = resp.optString("status", "fail");
-                    String message = resp.optString("message", "");
-                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, message));
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
+            mq.request("user.request.register", req).whenComplete((resp, err) -> {
+                String message = err != null ? "注册失败：" + describe(err) : resp.optString("message", "");
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, message));
             });
-
-            mq.sendMessage("user.request.register", req.toString());
-            System.out.println("已发送注册请求: " + req.toString());
+            System.out.println("已发送注册请求: " + username);
 
         } catch (Exception ex) {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(this, "发送注册失败：" + ex.getMessage());
         }
     }
+
+    private static String describe(Throwable err) {
+        if (err instanceof CompletionException && err.getCause() != null) err = err.getCause();
+        return err instanceof TimeoutException ? "服务器无响应，请稍后重试" : err.getMessage();
+    }
 }
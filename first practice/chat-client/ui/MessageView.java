@@ -0,0 +1,174 @@
+package com.chat.client.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 聊天消息列表：
+ * - 任意线程调用 post() 只是把一行放进并发队列，由 EDT 上的 Swing Timer 每 flushMs 取出一批一次性加入列表，
+ *   消息再多也只有这一个定时任务在 EDT 上跑，不再每条消息一个 invokeLater；
+ * - 列表模型是固定容量的环形缓冲区，超出 scrollback 行的最早消息被丢弃，内存有上限；
+ * - 用 JList 显示，只绘制可见的几十行，不像 JTextArea 那样整段文本都参与布局；
+ * - 行可以带一个动作（如文件消息的下载），双击或回车执行，这类行以蓝色显示。
+ */
+public class MessageView extends JScrollPane {
+
+    /** 一行消息；action 不为 null 时可双击执行 */
+    public static final class Line {
+        final String text;
+        final Runnable action;
+
+        public Line(String text) {
+            this(text, null);
+        }
+
+        public Line(String text, Runnable action) {
+            this.text = text;
+            this.action = action;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static final Color ACTION_COLOR = new Color(0, 90, 200);
+
+    private final ConcurrentLinkedQueue<Line> incoming = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<List<Line>> prepends = new ConcurrentLinkedQueue<>();
+    private final ScrollbackModel model;
+    private final JList<Line> list;
+
+    public MessageView(int scrollback, int flushMs) {
+        model = new ScrollbackModel(scrollback);
+        list = new JList<>(model);
+        list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + 2); // 固定行高，不必逐行测量
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean selected, boolean focus) {
+                super.getListCellRendererComponent(l, value, index, selected, focus);
+                if (!selected && ((Line) value).action != null) setForeground(ACTION_COLOR);
+                return this;
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int i = list.locationToIndex(e.getPoint());
+                if (e.getClickCount() == 2 && i >= 0 && list.getCellBounds(i, i).contains(e.getPoint())) runAction(i);
+            }
+        });
+        list.getInputMap().put(KeyStroke.getKeyStroke("ENTER"), "runAction");
+        list.getActionMap().put("runAction", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                runAction(list.getSelectedIndex());
+            }
+        });
+        setViewportView(list);
+        new Timer(flushMs, e -> flush()).start();
+    }
+
+    /** 追加一行，可在任意线程调用 */
+    public void post(String line) {
+        incoming.offer(new Line(line));
+    }
+
+    /** 追加一行可双击执行的消息，action 在 EDT 上运行；可在任意线程调用 */
+    public void post(String line, Runnable action) {
+        incoming.offer(new Line(line, action));
+    }
+
+    /** 追加一行，可在任意线程调用 */
+    public void post(Line line) {
+        incoming.offer(line);
+    }
+
+    /** 把一批较早的消息（如聊天记录）放到最前面，可在任意线程调用 */
+    public void prepend(List<Line> lines) {
+        prepends.offer(lines);
+    }
+
+    private void runAction(int index) {
+        if (index < 0 || index >= model.getSize()) return;
+        Runnable action = model.getElementAt(index).action;
+        if (action != null) action.run();
+    }
+
+    private void flush() {
+        List<Line> batch = null;
+        Line line;
+        while ((line = incoming.poll()) != null) {
+            if (batch == null) batch = new ArrayList<>();
+            batch.add(line);
+        }
+        List<Line> older;
+        boolean changed = batch != null;
+        while ((older = prepends.poll()) != null) {
+            model.prependAll(older);
+            changed = true;
+        }
+        if (!changed) return;
+        JScrollBar bar = getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - list.getFixedCellHeight();
+        if (batch != null) model.addAll(batch);
+        if (atBottom && model.getSize() > 0) list.ensureIndexIsVisible(model.getSize() - 1); // 只有原本在底部时才跟随滚动
+    }
+
+    /** 固定容量的环形缓冲区列表模型，只在 EDT 上修改 */
+    static class ScrollbackModel extends AbstractListModel<Line> {
+        private final Line[] ring;
+        private int head;  // 第 0 行在 ring 中的位置
+        private int size;
+
+        ScrollbackModel(int capacity) {
+            ring = new Line[Math.max(1, capacity)];
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public Line getElementAt(int index) {
+            return ring[(head + index) % ring.length];
+        }
+
+        void addAll(List<Line> lines) {
+            int skip = Math.max(0, lines.size() - ring.length); // 一批就超过容量时只留最后的
+            int evict = Math.max(0, size + lines.size() - skip - ring.length);
+            if (evict > 0) {
+                for (int i = 0; i < evict; i++) ring[(head + i) % ring.length] = null;
+                head = (head + evict) % ring.length;
+                size -= evict;
+                fireIntervalRemoved(this, 0, evict - 1);
+            }
+            int from = size;
+            for (int i = skip; i < lines.size(); i++) {
+                ring[(head + size) % ring.length] = lines.get(i);
+                size++;
+            }
+            if (size > from) fireIntervalAdded(this, from, size - 1);
+        }
+
+        /** 插到最前面；缓冲区已满时放不下的较早行直接丢弃 */
+        void prependAll(List<Line> lines) {
+            int room = Math.min(lines.size(), ring.length - size);
+            if (room <= 0) return;
+            for (int i = lines.size() - 1; i >= lines.size() - room; i--) {
+                head = (head - 1 + ring.length) % ring.length;
+                ring[head] = lines.get(i);
+                size++;
+            }
+            fireIntervalAdded(this, 0, room - 1);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.chat.client.ui;
+
+import com.chat.client.util.TransferManager.Direction;
+import com.chat.client.util.TransferManager.State;
+import com.chat.client.util.TransferManager.Transfer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 传输列表：每个上传/下载一行（名称、进度条、取消按钮）。
+ * 进度不由传输线程推送，而是 EDT 上的 Timer 定期读取各个 Transfer 的计数刷新，
+ * 传输再快也不会产生大量 invokeLater；没有传输时 Timer 停止，面板隐藏。
+ */
+public class TransferPanel extends JPanel {
+    private static final int REFRESH_MS = 200;
+    private static final long KEEP_FINISHED_MS = 3000; // 结束后保留一会儿再移除
+
+    private static class Row {
+        final Transfer transfer;
+        final JPanel panel = new JPanel(new BorderLayout(6, 0));
+        final JProgressBar bar = new JProgressBar(0, 1000);
+        final JButton cancelBtn = new JButton("取消");
+        long finishedAt;
+
+        Row(Transfer transfer) {
+            this.transfer = transfer;
+            String arrow = transfer.direction() == Direction.UPLOAD ? "↑ " : "↓ ";
+            JLabel label = new JLabel(arrow + transfer.name());
+            label.setPreferredSize(new Dimension(180, label.getPreferredSize().height));
+            bar.setStringPainted(true);
+            cancelBtn.addActionListener(e -> transfer.cancel());
+            panel.add(label, BorderLayout.WEST);
+            panel.add(bar, BorderLayout.CENTER);
+            panel.add(cancelBtn, BorderLayout.EAST);
+        }
+    }
+
+    private final List<Row> rows = new ArrayList<>();
+    private final Timer timer = new Timer(REFRESH_MS, e -> refresh());
+
+    public TransferPanel() {
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        setBorder(BorderFactory.createTitledBorder("文件传输"));
+        setVisible(false);
+    }
+
+    /** 在 EDT 上调用 */
+    public void track(Transfer transfer) {
+        Row row = new Row(transfer);
+        rows.add(row);
+        add(row.panel);
+        setVisible(true);
+        revalidate();
+        refresh();
+        timer.start();
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        boolean removed = false;
+        for (Iterator<Row> it = rows.iterator(); it.hasNext(); ) {
+            Row row = it.next();
+            Transfer t = row.transfer;
+            State state = t.state();
+            long total = t.total();
+            if (state == State.QUEUED) {
+                row.bar.setString("等待中");
+            } else if (state == State.RUNNING) {
+                row.bar.setValue(total > 0 ? (int) (t.done() * 1000 / total) : 0);
+                row.bar.setString(size(t.done()) + " / " + size(total));
+            } else {
+                if (row.finishedAt == 0) {
+                    row.finishedAt = now;
+                    row.cancelBtn.setEnabled(false);
+                    if (state == State.DONE) row.bar.setValue(1000);
+                    row.bar.setString(state == State.DONE ? "完成" : state == State.CANCELLED ? "已取消" : "失败");
+                } else if (now - row.finishedAt >= KEEP_FINISHED_MS) {
+                    remove(row.panel);
+                    it.remove();
+                    removed = true;
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            timer.stop();
+            setVisible(false);
+        }
+        if (removed) revalidate();
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
@@ -0,0 +1,56 @@
+package com.chat.client.util;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * 客户端 application.properties 的统一读取入口，进程内只加载一次，
+ * 之后各处读取配置都不再访问 classpath。缺少某个键时返回调用方给出的默认值。
+ */
+public class ClientConfig {
+    private static final Properties prop = new Properties();
+    private static final boolean loaded;
+
+    static {
+        boolean ok = false;
+        try (InputStream input = ClientConfig.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (input != null) {
+                prop.load(input);
+                ok = true;
+            } else {
+                System.err.println("找不到 application.properties，使用默认配置");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        loaded = ok;
+    }
+
+    /** 是否找到了配置文件 */
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    public static String get(String key, String def) {
+        String v = prop.getProperty(key);
+        return v == null || v.trim().isEmpty() ? def : v.trim();
+    }
+
+    public static int getInt(String key, int def) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.err.println("配置项 " + key + " 不是整数，使用默认值 " + def);
+            return def;
+        }
+    }
+
+    public static long getLong(String key, long def) {
+        try {
+            return Long.parseLong(get(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.err.println("配置项 " + key + " 不是整数，使用默认值 " + def);
+            return def;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.chat.client.util;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP 文件下载。服务端支持 Range 且文件较大时，把文件切成 N 段并行下载，
+ * 各段按偏移写入同一个临时文件，全部完成后改名为目标文件；小文件走单连接。
+ */
+public class FileDownloader {
+    private static final long PARALLEL_THRESHOLD = 16L * 1024 * 1024;
+    private static final int MAX_RANGE_ATTEMPTS = 3;
+
+    public static void download(String url, File saveFile, ProgressListener listener) throws IOException {
+        HttpURLConnection head = open(url, "HEAD");
+        long size;
+        boolean ranges;
+        String etag;
+        try {
+            if (head.getResponseCode() != 200) {
+                throw new IOException("下载失败: HTTP " + head.getResponseCode());
+            }
+            size = head.getContentLengthLong();
+            ranges = "bytes".equalsIgnoreCase(head.getHeaderField("Accept-Ranges"));
+            etag = head.getHeaderField("ETag");
+        } finally {
+            head.disconnect();
+        }
+
+        File tmp = new File(saveFile.getPath() + ".part");
+        long start = System.nanoTime();
+        if (size >= PARALLEL_THRESHOLD && ranges) {
+            int streams = TransferTuner.DOWNLOAD.suggest();
+            downloadParallel(url, tmp, size, etag, streams, listener);
+            TransferTuner.DOWNLOAD.record(streams, size, System.nanoTime() - start);
+        } else {
+            downloadSingle(url, tmp, listener);
+        }
+        Files.move(tmp.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void downloadSingle(String url, File target, ProgressListener listener) throws IOException {
+        HttpURLConnection conn = open(url, "GET");
+        try (InputStream in = conn.getInputStream();
+             FileOutputStream out = new FileOutputStream(target)) {
+            long total = conn.getContentLengthLong();
+            byte[] buf = new byte[64 * 1024];
+            long done = 0;
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+                done += len;
+                if (listener != null) listener.onProgress(done, total);
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static void downloadParallel(String url, File target, long size, String etag, int streams,
+                                         ProgressListener listener) throws IOException {
+        long rangeSize = (size + streams - 1) / streams;
+        AtomicLong progress = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(streams, r -> {
+            Thread t = new Thread(r, "download-range");
+            t.setDaemon(true);
+            return t;
+        });
+        try (FileChannel out = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (long s = 0; s < size; s += rangeSize) {
+                long from = s, to = Math.min(size, s + rangeSize);
+                futures.add(pool.submit(() -> {
+                    downloadRange(url, out, from, to, etag, progress, size, listener);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                await(f);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** 下载 [from, to) 一段，中途断开时从已写到的位置重试 */
+    private static void downloadRange(String url, FileChannel out, long from, long to, String etag,
+                                      AtomicLong progress, long total, ProgressListener listener) throws IOException {
+        long pos = from;
+        IOException last = null;
+        for (int attempt = 0; attempt < MAX_RANGE_ATTEMPTS && pos < to; attempt++) {
+            HttpURLConnection conn = open(url, "GET");
+            conn.setRequestProperty("Range", "bytes=" + pos + "-" + (to - 1));
+            if (etag != null) conn.setRequestProperty("If-Range", etag);
+            try {
+                if (conn.getResponseCode() != 206) {
+                    throw new IOException("服务端未按分段响应: HTTP " + conn.getResponseCode());
+                }
+                try (InputStream in = conn.getInputStream()) {
+                    byte[] buf = new byte[64 * 1024];
+                    int len;
+                    while (pos < to && (len = in.read(buf, 0, (int) Math.min(buf.length, to - pos))) > 0) {
+                        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+                        while (bb.hasRemaining()) {
+                            pos += out.write(bb, pos);
+                        }
+                        long done = progress.addAndGet(len);
+                        if (listener != null) listener.onProgress(done, total);
+                    }
+                }
+            } catch (IOException e) {
+                last = e;
+            } finally {
+                conn.disconnect();
+            }
+        }
+        if (pos < to) throw new IOException("分段下载失败 [" + from + ", " + to + ")", last);
+    }
+
+    static void await(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("传输被中断");
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            throw new IOException(c);
+        }
+    }
+
+    private static HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(10_000);
+        conn.setReadTimeout(30_000);
+        return conn;
+    }
+}
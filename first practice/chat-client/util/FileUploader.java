@@ -1,10 +1,78 @@
 package com.chat.client.util;
 
 import java.io.*;
+import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 public class FileUploader {
+    // 与服务端 FileServer.CMD_HASH_FIRST 对应
+    private static final String CMD_HASH_FIRST = "@HASH1";
+    private static final String CMD_HASH_FIRST_NEGOTIATE = "@HASH2";
+    private static final String CMD_CHUNKED = "@CHUNK1";
+    private static final String CMD_RANGE = "@RANGE1";
+    private static final String CMD_COMMIT = "@COMMIT1";
+    private static final String CMD_CHUNKED_DEFLATE = "@CHUNK2";
+    private static final String CMD_RANGE_DEFLATE = "@RANGE2";
+
+    // 不小于该大小的文件走分块续传协议；再大一些的切成多段并行上传
+    private static final long RESUMABLE_THRESHOLD = 8L * 1024 * 1024;
+    private static final long PARALLEL_THRESHOLD = 32L * 1024 * 1024;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int ACK_WINDOW = 4;      // 未确认的块最多几个
+    private static final int MAX_ATTEMPTS = 5;
+
+    // 压缩：取文件开头一块试压，压缩率好于该比例才启用；已知的压缩格式直接跳过
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final double COMPRESS_RATIO = 0.85;
+    private static final Set<String> COMPRESSED_EXT = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "aac", "ogg", "flac", "mp4", "mkv", "mov", "avi",
+            "webm", "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "jar", "apk", "docx", "xlsx", "pptx"));
+
+    public static String uploadFile(String host, int port, File file) throws IOException {
+        return uploadFile(host, port, file, (ProgressListener) null);
+    }
+
+    /**
+     * 默认使用 hash-first 协议：服务端已有相同内容时不再发送文件字节；
+     * 大文件使用分块续传协议，断线后自动从服务端确认的偏移继续；
+     * 更大的文件切成多段、多条连接并行上传。值得压缩的文件：小文件整体压缩（@HASH2），
+     * 大文件逐块压缩（@CHUNK2 / @RANGE2），续传能力不受影响
+     */
+    public static String uploadFile(String host, int port, File file, ProgressListener listener) throws IOException {
+        boolean compress = worthCompressing(file);
+        if (file.length() >= PARALLEL_THRESHOLD) {
+            return uploadParallel(host, port, file, listener, compress);
+        }
+        if (file.length() >= RESUMABLE_THRESHOLD) {
+            return uploadResumable(host, port, file, listener, compress);
+        }
+        String url;
+        if (compress) {
+            url = uploadCompressed(host, port, file);
+        } else {
+            url = uploadFile(host, port, file, true);
+        }
+        if (listener != null) listener.onProgress(file.length(), file.length());
+        return url;
+    }
 
     /**
      * 上传文件到服务端（Socket），成功返回 **完整可访问的 HTTP URL**
@@ -12,10 +80,11 @@ public class FileUploader {
      * @param host 服务端 IP
      * @param port 文件上传专用端口（Socket）
      * @param file 要上传的文件
+     * @param hashFirst 是否先发送 SHA-256，让服务端决定是否需要文件内容
      * @return http://host:port/uploads/xxx
      * @throws IOException 上传失败（包括服务器返回错误）
      */
-    public static String uploadFile(String host, int port, File file) throws IOException {
+    public static String uploadFile(String host, int port, File file, boolean hashFirst) throws IOException {
         Socket socket = null;
         DataOutputStream dos = null;
         BufferedReader reader = null;
@@ -29,8 +98,27 @@ public class FileUploader {
 
             // 1. 发送文件名（必须编码）
             String encodedName = URLEncoder.encode(file.getName(), "UTF-8");
-            dos.writeUTF(encodedName);
-            dos.writeLong(file.length());
+            if (hashFirst) {
+                dos.writeUTF(CMD_HASH_FIRST);
+                dos.writeUTF(encodedName);
+                dos.writeLong(file.length());
+                dos.writeUTF(sha256(file));
+                dos.flush();
+
+                String answer = reader.readLine();
+                if (answer == null) {
+                    throw new IOException("服务器无响应");
+                }
+                if (answer.startsWith("SUCCESS ")) {
+                    return answer.substring(8); // 服务端已有相同内容，无需再传
+                }
+                if (!"SEND".equals(answer)) {
+                    throw new IOException("上传失败: " + answer);
+                }
+            } else {
+                dos.writeUTF(encodedName);
+                dos.writeLong(file.length());
+            }
 
             // 2. 发送文件内容
             try (FileInputStream fis = new FileInputStream(file)) {
@@ -63,4 +151,451 @@ public class FileUploader {
             if (socket != null) try { socket.close(); } catch (Exception ignored) {}
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 带压缩协商的 hash-first 上传（@HASH2）：提供 deflate，服务端同意时以
+     * writeInt(块长度) + 压缩数据 的形式分块发送，服务端边收边解压。
+     */
+    public static String uploadCompressed(String host, int port, File file) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            socket.setSoTimeout(30_000);
+            dos.writeUTF(CMD_HASH_FIRST_NEGOTIATE);
+            dos.writeUTF(URLEncoder.encode(file.getName(), "UTF-8"));
+            dos.writeLong(file.length());
+            dos.writeUTF(sha256(file));
+            dos.writeUTF("deflate,identity");
+            dos.flush();
+
+            String answer = readLine(dis);
+            if (answer == null) throw new IOException("服务器无响应");
+            if (answer.startsWith("SUCCESS ")) return answer.substring(8);
+            if ("SEND deflate".equals(answer)) {
+                sendDeflated(dos, file);
+            } else if ("SEND identity".equals(answer)) {
+                try (FileInputStream fis = new FileInputStream(file)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int len;
+                    while ((len = fis.read(buffer)) != -1) {
+                        dos.write(buffer, 0, len);
+                    }
+                }
+            } else {
+                throw new IOException("上传失败: " + answer);
+            }
+            dos.flush();
+
+            String response = readLine(dis);
+            if (response == null) throw new IOException("服务器无响应");
+            if (!response.startsWith("SUCCESS ")) throw new IOException("上传失败: " + response);
+            return response.substring(8);
+        }
+    }
+
+    private static void sendDeflated(DataOutputStream dos, File file) throws IOException {
+        // 每次 write 都是一个压缩块：writeInt(长度) + 数据
+        OutputStream blocks = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return;
+                dos.writeInt(len);
+                dos.write(b, off, len);
+            }
+        };
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileInputStream fis = new FileInputStream(file)) {
+            DeflaterOutputStream zos = new DeflaterOutputStream(blocks, deflater, 64 * 1024);
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = fis.read(buffer)) != -1) {
+                zos.write(buffer, 0, len);
+            }
+            zos.finish();
+            dos.writeInt(0); // 结束
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** 按扩展名和开头一块的试压结果判断是否值得压缩 */
+    static boolean worthCompressing(File file) {
+        if (file.length() < 4 * 1024) return false;
+        String name = file.getName().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXT.contains(name.substring(dot + 1))) return false;
+
+        byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, file.length())];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(sample);
+        } catch (IOException e) {
+            return false;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] out = new byte[sample.length + 64];
+            int compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(out);
+            }
+            return compressed < sample.length * COMPRESS_RATIO;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 分块续传上传。uploadId 由文件路径、大小和修改时间决定，
+     * 因此客户端重启后再次上传同一个文件也能接着之前的进度继续。
+     */
+    public static String uploadResumable(String host, int port, File file, ProgressListener listener) throws IOException {
+        return uploadResumable(host, port, file, listener, false);
+    }
+
+    /** compress 为 true 时逐块压缩（@CHUNK2），服务端不支持则退回 @CHUNK1 */
+    public static String uploadResumable(String host, int port, File file, ProgressListener listener,
+                                         boolean compress) throws IOException {
+        String uploadId = uploadIdOf(file, "");
+        String hash = sha256(file);
+        IOException last = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                return uploadChunked(host, port, file, uploadId, hash, listener, compress);
+            } catch (ProtocolException e) {
+                if (!compress) throw e;
+                compress = false; // 旧服务端不认识 @CHUNK2，立即改用不压缩的块
+                attempt--;
+            } catch (IOException e) {
+                last = e;
+                System.out.println("上传中断（第 " + attempt + " 次）：" + e.getMessage());
+                if (attempt < MAX_ATTEMPTS) backoff(attempt);
+            }
+        }
+        throw new IOException("上传失败", last);
+    }
+
+    private static String uploadChunked(String host, int port, File file, String uploadId, String hash,
+                                        ProgressListener listener, boolean compress) throws IOException {
+        long total = file.length();
+        try (Socket socket = new Socket(host, port);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            socket.setSoTimeout(30_000);
+
+            dos.writeUTF(compress ? CMD_CHUNKED_DEFLATE : CMD_CHUNKED);
+            dos.writeUTF(uploadId);
+            dos.writeUTF(URLEncoder.encode(file.getName(), "UTF-8"));
+            dos.writeLong(total);
+            dos.writeUTF(hash);
+            dos.flush();
+
+            // 服务端告诉我们已经确认到哪里
+            long offset = readOffset(dis);
+            if (offset < 0 || offset > total) {
+                throw new IOException("服务端返回了非法偏移: " + offset);
+            }
+            if (offset == total && total > 0) {
+                System.out.println("服务端已有 " + file.getName() + "，无需重传");
+            } else if (offset > 0) {
+                System.out.println("从 " + offset + "/" + total + " 处续传 " + file.getName());
+            }
+            sendChunks(dos, dis, raf, offset, total, compress, acked -> {
+                if (listener != null) listener.onProgress(acked, total);
+            });
+
+            String response = readLine(dis);
+            if (response == null) {
+                throw new IOException("服务器无响应");
+            }
+            if (!response.startsWith("SUCCESS ")) {
+                throw new IOException("上传失败: " + response);
+            }
+            return response.substring(8);
+        }
+    }
+
+    /**
+     * 多连接并行上传：文件切成 N 段（N 由 TransferTuner 根据以往吞吐决定），
+     * 每段一条连接按偏移写入服务端，全部确认后发送 @COMMIT1 提交。每段各自断点续传。
+     */
+    public static String uploadParallel(String host, int port, File file, ProgressListener listener) throws IOException {
+        return uploadParallel(host, port, file, listener, false);
+    }
+
+    /** compress 为 true 时各段逐块压缩（@RANGE2），服务端不支持则退回 @RANGE1 */
+    public static String uploadParallel(String host, int port, File file, ProgressListener listener,
+                                        boolean compress) throws IOException {
+        long total = file.length();
+        String uploadId = uploadIdOf(file, "p");
+        String hash = sha256(file);
+        String encodedName = URLEncoder.encode(file.getName(), "UTF-8");
+
+        // 服务端已有相同内容，或上次已经全部传完只差提交
+        String fileId;
+        try {
+            fileId = commitRanged(host, port, uploadId, encodedName, total, hash);
+        } catch (IOException e) {
+            // 例如服务端校验出上次拼好的内容与 sha256 不符，已清空进度：照常重传各段
+            System.out.println("提交上次的分段上传失败，重新上传：" + e.getMessage());
+            fileId = null;
+        }
+        if (fileId != null) {
+            if (listener != null) listener.onProgress(total, total);
+            return fileId;
+        }
+
+        int streams = TransferTuner.UPLOAD.suggest();
+        long rangeSize = Math.max(CHUNK_SIZE, (total / streams + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE);
+        AtomicLong progress = new AtomicLong();
+        AtomicLong sentThisRun = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(streams, r -> {
+            Thread t = new Thread(r, "upload-range");
+            t.setDaemon(true);
+            return t;
+        });
+        long startNs = System.nanoTime();
+        try {
+            for (long s = 0; s < total; s += rangeSize) {
+                long from = s, to = Math.min(total, s + rangeSize);
+                futures.add(pool.submit(() -> {
+                    uploadRangeWithRetry(host, port, file, uploadId, encodedName, from, to, progress, sentThisRun,
+                            listener, compress);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                FileDownloader.await(f);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        TransferTuner.UPLOAD.record(futures.size(), sentThisRun.get(), System.nanoTime() - startNs);
+
+        fileId = commitRanged(host, port, uploadId, encodedName, total, hash);
+        if (fileId == null) {
+            throw new IOException("服务端报告仍有分段未完成");
+        }
+        return fileId;
+    }
+
+    private static void uploadRangeWithRetry(String host, int port, File file, String uploadId, String encodedName,
+                                             long from, long to, AtomicLong progress, AtomicLong sentThisRun,
+                                             ProgressListener listener, boolean compress) throws IOException {
+        long total = file.length();
+        long[] counted = {0}; // 本段已计入 progress 的字节数，重连后不重复累计
+        LongConsumer onAck = acked -> {
+            long delta = (acked - from) - counted[0];
+            counted[0] += delta;
+            long done = progress.addAndGet(delta);
+            if (listener != null) listener.onProgress(done, total);
+        };
+        IOException last = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try (Socket socket = new Socket(host, port);
+                 DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+                 DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                 RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                socket.setSoTimeout(30_000);
+                dos.writeUTF(compress ? CMD_RANGE_DEFLATE : CMD_RANGE);
+                dos.writeUTF(uploadId);
+                dos.writeUTF(encodedName);
+                dos.writeLong(total);
+                dos.writeLong(from);
+                dos.writeLong(to);
+                dos.flush();
+
+                long offset = readOffset(dis);
+                if (offset < from || offset > to) {
+                    throw new IOException("服务端返回了非法偏移: " + offset);
+                }
+                onAck.accept(offset);
+                long before = offset;
+                sendChunks(dos, dis, raf, offset, to, compress, onAck);
+                sentThisRun.addAndGet(to - before);
+
+                String response = readLine(dis);
+                if (response == null || !response.startsWith("OK ")) {
+                    throw new IOException("分段上传失败: " + response);
+                }
+                return;
+            } catch (ProtocolException e) {
+                if (!compress) throw e;
+                compress = false; // 旧服务端不认识 @RANGE2，立即改用不压缩的块
+                attempt--;
+            } catch (IOException e) {
+                last = e;
+                System.out.println("分段 [" + from + ", " + to + ") 中断（第 " + attempt + " 次）：" + e.getMessage());
+                if (attempt < MAX_ATTEMPTS) backoff(attempt);
+            }
+        }
+        throw new IOException("分段上传失败 [" + from + ", " + to + ")", last);
+    }
+
+    /** 发送 @COMMIT1；返回 fileId，服务端还缺字节时返回 null */
+    private static String commitRanged(String host, int port, String uploadId, String encodedName,
+                                       long total, String hash) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            socket.setSoTimeout(60_000); // 提交时服务端要计算整个文件的哈希
+            dos.writeUTF(CMD_COMMIT);
+            dos.writeUTF(uploadId);
+            dos.writeUTF(encodedName);
+            dos.writeLong(total);
+            dos.writeUTF(hash);
+            dos.flush();
+            String response = readLine(dis);
+            if (response == null) throw new IOException("服务器无响应");
+            if ("INCOMPLETE".equals(response)) return null;
+            if (!response.startsWith("SUCCESS ")) throw new IOException("提交失败: " + response);
+            return response.substring(8);
+        }
+    }
+
+    /**
+     * 发送 [from, to) 的数据块（长度 + CRC32 + 内容），最多 ACK_WINDOW 个块未确认，
+     * 最后发送长度为 0 的结束块。每收到一个确认回调一次 onAck(已确认偏移)。
+     * compress 时每块单独压缩，压缩后足够小才发送压缩块：
+     * writeInt(-压缩后长度) + writeInt(原始长度) + writeInt(原始内容的 CRC32) + 压缩数据。
+     */
+    private static void sendChunks(DataOutputStream dos, DataInputStream dis, RandomAccessFile raf,
+                                   long from, long to, boolean compress, LongConsumer onAck) throws IOException {
+        raf.seek(from);
+        byte[] buffer = new byte[CHUNK_SIZE];
+        byte[] packed = compress ? new byte[CHUNK_SIZE] : null;
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        CRC32 crc = new CRC32();
+        Deque<Long> unacked = new ArrayDeque<>();
+        long sent = from;
+        try {
+            while (sent < to) {
+                int len = (int) Math.min(CHUNK_SIZE, to - sent);
+                raf.readFully(buffer, 0, len);
+                crc.reset();
+                crc.update(buffer, 0, len);
+                int packedLen = compress ? deflateBlock(deflater, buffer, len, packed) : -1;
+                if (packedLen > 0) {
+                    dos.writeInt(-packedLen);
+                    dos.writeInt(len);
+                    dos.writeInt((int) crc.getValue());
+                    dos.write(packed, 0, packedLen);
+                } else {
+                    dos.writeInt(len);
+                    dos.writeInt((int) crc.getValue());
+                    dos.write(buffer, 0, len);
+                }
+                sent += len;
+                unacked.add(sent);
+                if (unacked.size() >= ACK_WINDOW) {
+                    dos.flush();
+                    onAck.accept(readAck(dis, unacked.poll()));
+                }
+            }
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+        dos.writeInt(0); // 结束
+        dos.flush();
+        while (!unacked.isEmpty()) {
+            onAck.accept(readAck(dis, unacked.poll()));
+        }
+    }
+
+    /** 把一块压缩成独立的 deflate 流写入 out；压缩率达不到 COMPRESS_RATIO 时返回 -1，按原样发送 */
+    private static int deflateBlock(Deflater deflater, byte[] data, int len, byte[] out) {
+        int limit = (int) (len * COMPRESS_RATIO);
+        deflater.reset();
+        deflater.setInput(data, 0, len);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished() && n < limit) {
+            n += deflater.deflate(out, n, limit - n);
+        }
+        return deflater.finished() && n < limit ? n : -1;
+    }
+
+    /** 读取服务端确认的起始偏移；服务端回复的是一行 ERROR 时抛出，不认识命令时抛 ProtocolException */
+    private static long readOffset(DataInputStream dis) throws IOException {
+        dis.mark(1);
+        int first = dis.read();
+        if (first == -1) throw new EOFException("服务器无响应");
+        if (first != 'E') {
+            dis.reset();
+            return dis.readLong();
+        }
+        String line = "E" + readLine(dis);
+        if (line.contains("不支持的上传命令")) throw new ProtocolException(line);
+        throw new IOException("上传失败: " + line);
+    }
+
+    private static long readAck(DataInputStream dis, long expected) throws IOException {
+        long ack = dis.readLong();
+        if (ack != expected) {
+            throw new IOException(ack == -1 ? "数据块校验失败" : "确认偏移不符: " + ack + " != " + expected);
+        }
+        return ack;
+    }
+
+    private static String uploadIdOf(File file, String prefix) throws IOException {
+        String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        return prefix + sha256(key).substring(0, 32 - prefix.length());
+    }
+
+    private static void backoff(int attempt) throws IOException {
+        try {
+            Thread.sleep(Math.min(8_000L, 500L << attempt));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("上传被中断");
+        }
+    }
+
+    private static String readLine(DataInputStream dis) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int b;
+        while ((b = dis.read()) != -1 && b != '\n') {
+            bos.write(b);
+        }
+        if (b == -1 && bos.size() == 0) return null;
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static String sha256(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = fis.read(buffer)) != -1) {
+                md.update(buffer, 0, len);
+            }
+            return toHex(md.digest());
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String sha256(String text) throws IOException {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
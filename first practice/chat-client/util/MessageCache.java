@@ -0,0 +1,339 @@
+package com.chat.client.util;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * 客户端本地消息缓存，保存从服务端聊天记录取回的消息，打开窗口时不等网络就能先显示最近的消息。
+ * 每个会话一对只追加的文件（<dir>/<会话名>-<代号>.log / .idx）：
+ *   log 记录：int 长度 | int CRC32 | long 服务端偏移 | long 时间戳 | 消息内容，长度与 CRC 覆盖偏移之后的部分；
+ *   idx 记录：long 服务端偏移 | long 该条在 log 中的位置，每条 16 字节。
+ * 读取时把两个文件内存映射，只按 idx 定位需要的最后几条。
+ * 服务端偏移全局单调递增，同一会话只追加比已有更大的偏移，重复取回的消息自动忽略；
+ * 最大的偏移就是下次向服务端补齐的起点。
+ * 总大小超过 maxBytes 时按服务端偏移淘汰最旧的消息，降到上限的 3/4：
+ * 会话改写到新代号的文件中，旧文件删除失败（例如 Windows 上仍被映射）时留到下次打开再删。
+ * 打开时校验 idx 末尾的记录，丢掉上次崩溃时写了一半的部分。
+ */
+public class MessageCache {
+    private static final int HEADER = 8;        // int 长度 + int CRC
+    private static final int FIXED = 16;        // long 偏移 + long 时间戳
+    private static final int INDEX_ENTRY = 16;
+
+    public static class Entry {
+        public final long offset;
+        public final long timestamp;
+        public final String conversation;
+        public final String message;
+
+        public Entry(long offset, long timestamp, String conversation, String message) {
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.conversation = conversation;
+            this.message = message;
+        }
+    }
+
+    private static class Conversation {
+        final String key;
+        final int generation;
+        final Path logFile;
+        final Path idxFile;
+        final FileChannel log;
+        final FileChannel idx;
+        long logSize;
+        int count;
+        long lastOffset = -1;
+        MappedByteBuffer logMap; // 只读映射，文件变长后下次读取时重新映射
+        MappedByteBuffer idxMap;
+
+        Conversation(Path dir, String key, int generation) throws IOException {
+            this.key = key;
+            this.generation = generation;
+            String base = URLEncoder.encode(key, "UTF-8") + "-" + generation;
+            this.logFile = dir.resolve(base + ".log");
+            this.idxFile = dir.resolve(base + ".idx");
+            this.log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.idx = FileChannel.open(idxFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        ByteBuffer logView() throws IOException {
+            if (logMap == null || logMap.capacity() < logSize) logMap = log.map(FileChannel.MapMode.READ_ONLY, 0, logSize);
+            return logMap.duplicate();
+        }
+
+        ByteBuffer idxView() throws IOException {
+            long size = (long) count * INDEX_ENTRY;
+            if (idxMap == null || idxMap.capacity() < size) idxMap = idx.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return idxMap.duplicate();
+        }
+
+        long offsetAt(ByteBuffer idxView, int i) {
+            return idxView.getLong(i * INDEX_ENTRY);
+        }
+
+        long positionAt(ByteBuffer idxView, int i) {
+            return idxView.getLong(i * INDEX_ENTRY + 8);
+        }
+
+        void close() {
+            try {
+                log.close();
+                idx.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            logMap = null;
+            idxMap = null;
+        }
+    }
+
+    private final Path dir;
+    private final long maxBytes;
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    private long totalBytes;
+    private boolean closed;
+
+    public MessageCache(String dir, long maxBytes) throws IOException {
+        this.dir = Paths.get(dir);
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.dir);
+
+        // 每个会话取代号最大的一对文件，其余是淘汰时没删掉的旧文件
+        Map<String, Integer> latest = new HashMap<>();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(this.dir, "*-*.{log,idx}")) {
+            for (Path p : ds) files.add(p);
+        }
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            int dash = name.lastIndexOf('-');
+            try {
+                String key = URLDecoder.decode(name.substring(0, dash), "UTF-8");
+                int gen = Integer.parseInt(name.substring(dash + 1, name.length() - 4));
+                latest.merge(key, gen, Math::max);
+            } catch (Exception e) {
+                System.err.println("忽略无法识别的缓存文件：" + p);
+            }
+        }
+        for (Map.Entry<String, Integer> e : latest.entrySet()) {
+            Conversation c = new Conversation(this.dir, e.getKey(), e.getValue());
+            recover(c);
+            conversations.put(c.key, c);
+            totalBytes += c.logSize + (long) c.count * INDEX_ENTRY;
+        }
+        for (Path p : files) {
+            if (!isCurrent(p)) Files.deleteIfExists(p);
+        }
+        evictIfNeeded();
+        System.out.println("本地消息缓存：" + conversations.size() + " 个会话，" + (totalBytes / 1024) + " KB");
+    }
+
+    private boolean isCurrent(Path p) {
+        for (Conversation c : conversations.values()) {
+            if (p.equals(c.logFile) || p.equals(c.idxFile)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 丢掉 idx 中指向不完整或校验不符记录的末尾条目，并把 log 截到最后一条有效记录之后。
+     * 这里用普通读取而不映射，Windows 上已映射的文件不能截短。
+     */
+    private static void recover(Conversation c) throws IOException {
+        c.count = (int) (c.idx.size() / INDEX_ENTRY);
+        long fileSize = c.log.size();
+        c.logSize = 0;
+        ByteBuffer ie = ByteBuffer.allocate(INDEX_ENTRY);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (c.count > 0) {
+            ie.clear();
+            readFully(c.idx, ie, (long) (c.count - 1) * INDEX_ENTRY);
+            long offset = ie.getLong(0);
+            long pos = ie.getLong(8);
+            header.clear();
+            if (pos >= 0 && pos + HEADER <= fileSize) {
+                readFully(c.log, header, pos);
+                int len = header.getInt(0);
+                if (len >= FIXED && pos + HEADER + len <= fileSize) {
+                    ByteBuffer body = ByteBuffer.allocate(len);
+                    readFully(c.log, body, pos + HEADER);
+                    if (header.getInt(4) == crc(body, 0, len)) {
+                        c.logSize = pos + HEADER + len;
+                        c.lastOffset = offset;
+                        break;
+                    }
+                }
+            }
+            c.count--;
+        }
+        c.idx.truncate((long) c.count * INDEX_ENTRY);
+        c.log.truncate(c.logSize);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) throw new IOException("缓存文件意外结束");
+        }
+    }
+
+    /** 所有会话中已缓存的最大服务端偏移，没有缓存时为 -1 */
+    public synchronized long lastOffset() {
+        long max = -1;
+        for (Conversation c : conversations.values()) max = Math.max(max, c.lastOffset);
+        return max;
+    }
+
+    /** 各会话合并后最近的 limit 条，按服务端偏移升序 */
+    public synchronized List<Entry> recent(int limit) {
+        List<Entry> out = new ArrayList<>();
+        try {
+            for (Conversation c : conversations.values()) {
+                if (c.count == 0) continue;
+                ByteBuffer iv = c.idxView();
+                ByteBuffer lv = c.logView();
+                for (int i = Math.max(0, c.count - limit); i < c.count; i++) {
+                    out.add(read(c, lv, (int) c.positionAt(iv, i)));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out.sort(Comparator.comparingLong(e -> e.offset));
+        return out.size() > limit ? new ArrayList<>(out.subList(out.size() - limit, out.size())) : out;
+    }
+
+    private static Entry read(Conversation c, ByteBuffer lv, int pos) {
+        int len = lv.getInt(pos);
+        long offset = lv.getLong(pos + HEADER);
+        long ts = lv.getLong(pos + HEADER + 8);
+        byte[] msg = new byte[len - FIXED];
+        ByteBuffer b = lv.duplicate();
+        b.position(pos + HEADER + FIXED);
+        b.get(msg);
+        return new Entry(offset, ts, c.key, new String(msg, StandardCharsets.UTF_8));
+    }
+
+    /** 写入服务端返回的消息，已缓存过的（偏移不大于该会话最后一条）跳过；返回实际写入条数 */
+    public synchronized int append(List<Entry> entries) throws IOException {
+        if (closed) return 0;
+        int written = 0;
+        for (Entry e : entries) {
+            Conversation c = conversations.get(e.conversation);
+            if (c == null) {
+                c = new Conversation(dir, e.conversation, 0);
+                conversations.put(c.key, c);
+            }
+            if (e.offset <= c.lastOffset) continue;
+            write(c, e.offset, e.timestamp, e.message.getBytes(StandardCharsets.UTF_8));
+            written++;
+        }
+        if (written > 0) evictIfNeeded();
+        return written;
+    }
+
+    private void write(Conversation c, long offset, long ts, byte[] msg) throws IOException {
+        int len = FIXED + msg.length;
+        ByteBuffer rec = ByteBuffer.allocate(HEADER + len);
+        rec.putInt(len).putInt(0).putLong(offset).putLong(ts).put(msg);
+        rec.putInt(4, crc(rec, HEADER, len));
+        rec.flip();
+        long pos = c.logSize;
+        while (rec.hasRemaining()) c.log.write(rec, pos + rec.position());
+
+        ByteBuffer ie = ByteBuffer.allocate(INDEX_ENTRY);
+        ie.putLong(offset).putLong(pos).flip();
+        while (ie.hasRemaining()) c.idx.write(ie, (long) c.count * INDEX_ENTRY + ie.position());
+
+        c.logSize += HEADER + len;
+        c.count++;
+        c.lastOffset = offset;
+        totalBytes += HEADER + len + INDEX_ENTRY;
+    }
+
+    /** 超过上限时找出一个偏移界限，只保留它之后的消息，使总量降到上限的 3/4 */
+    private void evictIfNeeded() throws IOException {
+        if (maxBytes <= 0 || totalBytes <= maxBytes) return;
+        List<long[]> sizes = new ArrayList<>(); // {偏移, 该条占用字节}
+        for (Conversation c : conversations.values()) {
+            if (c.count == 0) continue;
+            ByteBuffer iv = c.idxView();
+            for (int i = 0; i < c.count; i++) {
+                long end = i + 1 < c.count ? c.positionAt(iv, i + 1) : c.logSize;
+                sizes.add(new long[]{c.offsetAt(iv, i), end - c.positionAt(iv, i) + INDEX_ENTRY});
+            }
+        }
+        sizes.sort((a, b) -> Long.compare(b[0], a[0]));
+        long keep = 0, cutoff = Long.MAX_VALUE;
+        for (long[] s : sizes) {
+            if (keep + s[1] > maxBytes * 3 / 4) break;
+            keep += s[1];
+            cutoff = s[0];
+        }
+
+        long before = totalBytes;
+        for (Conversation c : new ArrayList<>(conversations.values())) {
+            Conversation kept = compact(c, cutoff);
+            if (kept == null) conversations.remove(c.key);
+            else conversations.put(kept.key, kept);
+        }
+        totalBytes = 0;
+        for (Conversation c : conversations.values()) totalBytes += c.logSize + (long) c.count * INDEX_ENTRY;
+        System.out.println("本地消息缓存超过上限，淘汰 " + ((before - totalBytes) / 1024) + " KB 旧消息");
+    }
+
+    /** 把偏移不小于 cutoff 的记录改写到下一代文件；一条不剩时返回 null */
+    private Conversation compact(Conversation c, long cutoff) throws IOException {
+        ByteBuffer iv = c.idxView();
+        int from = 0;
+        while (from < c.count && c.offsetAt(iv, from) < cutoff) from++;
+        if (from == 0) return c;
+
+        Conversation next = null;
+        if (from < c.count) {
+            next = new Conversation(dir, c.key, c.generation + 1);
+            next.log.truncate(0);
+            next.idx.truncate(0);
+            ByteBuffer lv = c.logView();
+            for (int i = from; i < c.count; i++) {
+                Entry e = read(c, lv, (int) c.positionAt(iv, i));
+                write(next, e.offset, e.timestamp, e.message.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        c.close();
+        try {
+            Files.deleteIfExists(c.logFile);
+            Files.deleteIfExists(c.idxFile);
+        } catch (IOException e) {
+            System.err.println("旧缓存文件暂时无法删除，下次启动时清理：" + c.logFile);
+        }
+        return next;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        for (Conversation c : conversations.values()) c.close();
+        conversations.clear();
+    }
+
+    private static int crc(ByteBuffer buf, int from, int len) {
+        CRC32 crc = new CRC32();
+        ByteBuffer b = buf.duplicate();
+        b.position(from);
+        b.limit(from + len);
+        crc.update(b);
+        return (int) crc.getValue();
+    }
+}
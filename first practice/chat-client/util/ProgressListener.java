@@ -0,0 +1,8 @@
+package com.chat.client.util;
+
+/**
+ * 传输进度回调。可能在任意传输线程上调用，更新界面前需要切回 EDT。
+ */
+public interface ProgressListener {
+    void onProgress(long done, long total);
+}
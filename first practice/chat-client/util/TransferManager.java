@@ -0,0 +1,128 @@
+package com.chat.client.util;
+
+import java.io.File;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台文件传输：上传和下载各有一个固定大小的线程池，同时进行的传输数有上限，
+ * 超出的排队等待，界面线程只负责提交和显示，不再被传输阻塞。
+ * 每个传输都是一个 Transfer，可随时读取进度、取消；结果通过 CompletableFuture 通知。
+ */
+public class TransferManager {
+
+    public enum Direction { UPLOAD, DOWNLOAD }
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    /** 一次上传或下载。进度字段由传输线程写、界面线程读 */
+    public static class Transfer {
+        private final Direction direction;
+        private final String name;
+        private final AtomicLong done = new AtomicLong();
+        private volatile long total;
+        private volatile State state = State.QUEUED;
+        private volatile Future<?> task;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Transfer(Direction direction, String name, long total) {
+            this.direction = direction;
+            this.name = name;
+            this.total = total;
+        }
+
+        public Direction direction() { return direction; }
+        public String name() { return name; }
+        public long done() { return done.get(); }
+        public long total() { return total; }
+        public State state() { return state; }
+
+        /** 上传完成时为文件路径，下载完成时为保存位置；失败或取消时以异常结束 */
+        public CompletableFuture<String> result() { return result; }
+
+        /** 排队中的直接出队；进行中的在下一次进度回调时中止，并中断等待中的重试 */
+        public void cancel() {
+            if (state == State.DONE || state == State.FAILED || state == State.CANCELLED) return;
+            state = State.CANCELLED;
+            Future<?> t = task;
+            if (t != null) t.cancel(true);
+            result.completeExceptionally(new CancellationException("已取消：" + name));
+        }
+
+        /** 传给 FileUploader / FileDownloader 的进度回调，已取消时抛出异常让传输尽快停下 */
+        ProgressListener listener() {
+            return (d, t) -> {
+                if (state == State.CANCELLED) throw new CancellationException("已取消：" + name);
+                done.set(d);
+                if (t > 0) total = t;
+            };
+        }
+    }
+
+    private final ExecutorService uploads;
+    private final ExecutorService downloads;
+
+    public TransferManager(int maxUploads, int maxDownloads) {
+        uploads = Executors.newFixedThreadPool(Math.max(1, maxUploads), daemon("file-upload"));
+        downloads = Executors.newFixedThreadPool(Math.max(1, maxDownloads), daemon("file-download"));
+    }
+
+    public Transfer upload(String host, int port, File file) {
+        Transfer t = new Transfer(Direction.UPLOAD, file.getName(), file.length());
+        submit(uploads, t, () -> FileUploader.uploadFile(host, port, file, t.listener()), null);
+        return t;
+    }
+
+    public Transfer download(String url, File saveFile) {
+        Transfer t = new Transfer(Direction.DOWNLOAD, saveFile.getName(), 0);
+        File part = new File(saveFile.getPath() + ".part");
+        submit(downloads, t, () -> {
+            FileDownloader.download(url, saveFile, t.listener());
+            return saveFile.getPath();
+        }, part);
+        return t;
+    }
+
+    /** leftover: 取消或失败时要删除的临时文件，可为 null */
+    private void submit(ExecutorService pool, Transfer t, Callable<String> work, File leftover) {
+        try {
+            t.task = pool.submit(() -> {
+                if (t.state == State.CANCELLED) return;
+                t.state = State.RUNNING;
+                try {
+                    String r = work.call();
+                    t.done.set(Math.max(t.done.get(), t.total));
+                    if (t.result.complete(r)) t.state = State.DONE; // 与 cancel() 竞争时以先完成的为准
+                } catch (Exception e) {
+                    if (t.state != State.CANCELLED) {
+                        t.state = State.FAILED;
+                        System.err.println((t.direction == Direction.UPLOAD ? "上传 " : "下载 ") + t.name + " 失败：" + e.getMessage());
+                    }
+                    if (leftover != null && leftover.exists() && !leftover.delete()) {
+                        System.err.println("无法删除临时文件 " + leftover);
+                    }
+                    t.result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            t.state = State.FAILED;
+            t.result.completeExceptionally(e);
+        }
+    }
+
+    /** 不再接受新传输，正在进行的随进程退出而结束（线程都是守护线程） */
+    public void shutdown() {
+        uploads.shutdownNow();
+        downloads.shutdownNow();
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
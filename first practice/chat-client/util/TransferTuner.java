@@ -0,0 +1,46 @@
+package com.chat.client.util;
+
+/**
+ * 根据实测吞吐自适应地选择并行连接数（爬山法）：
+ * 每次传输结束记录 “连接数 → 吞吐” 的滑动平均，相邻连接数更快就往那边走，
+ * 比少一条连接明显更快（>10%）且更多连接还没试过时继续往上试探。
+ */
+public class TransferTuner {
+    public static final TransferTuner UPLOAD = new TransferTuner(1, 8, 3);
+    public static final TransferTuner DOWNLOAD = new TransferTuner(1, 8, 4);
+
+    private final int min;
+    private final int max;
+    private final double[] ewma; // 下标为连接数，单位 字节/秒，0 表示还没测过
+    private int current;
+
+    public TransferTuner(int min, int max, int initial) {
+        this.min = min;
+        this.max = max;
+        this.ewma = new double[max + 2];
+        this.current = Math.max(min, Math.min(max, initial));
+    }
+
+    /** 下一次传输建议使用的连接数 */
+    public synchronized int suggest() {
+        return current;
+    }
+
+    public synchronized void record(int streams, long bytes, long nanos) {
+        if (streams < min || streams > max || bytes <= 0 || nanos <= 0) return;
+        double tp = bytes / (nanos / 1e9);
+        ewma[streams] = ewma[streams] == 0 ? tp : 0.7 * ewma[streams] + 0.3 * tp;
+        if (streams != current) return;
+
+        double here = ewma[streams];
+        double below = streams > min ? ewma[streams - 1] : 0;
+        double above = streams < max ? ewma[streams + 1] : 0;
+        if (above > here) {
+            current = streams + 1;
+        } else if (below > here) {
+            current = streams - 1;
+        } else if (above == 0 && streams < max && (below == 0 || here > below * 1.1)) {
+            current = streams + 1;
+        }
+    }
+}
@@ -1,16 +1,46 @@
 package com.chat.server;
 
 import com.chat.server.mq.MQManager;
+import com.chat.server.listener.GroupListener;
+import com.chat.server.listener.HistoryListener;
+import com.chat.server.listener.PresenceListener;
 import com.chat.server.listener.UserListener;
+import com.chat.server.service.ChatHistory;
+import com.chat.server.service.GroupService;
+import com.chat.server.service.PresenceService;
+import com.chat.server.service.SessionTokens;
+import com.chat.server.util.AppConfig;
+import com.chat.server.util.FileHttpServer;
+import com.chat.server.util.FileRetention;
 import com.chat.server.util.FileServer;
+import com.chat.server.util.FileStore;
+import com.chat.server.util.HotFileCache;
 
 public class ServerMain {
     public static void main(String[] args) {
         try {
             MQManager mqManager = new MQManager();
-            UserListener listener = new UserListener(mqManager);
+            PresenceService presence = new PresenceService(mqManager);
+            SessionTokens sessions = new SessionTokens();
+            UserListener listener = new UserListener(mqManager, presence, sessions);
             listener.startListening();
-            new Thread(new FileServer()).start();
+            new PresenceListener(mqManager, presence).startListening();
+            ChatHistory history = new ChatHistory();
+            GroupService groups = new GroupService();
+            new HistoryListener(mqManager, history, groups, sessions).startListening();
+            new GroupListener(mqManager, groups, history, sessions).startListening();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    mqManager.close(); // 等待已收到的登录/注册处理完再断开
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, "shutdown"));
+            FileStore fileStore = new FileStore(AppConfig.get("file.dir", "files/"));
+            new FileRetention(fileStore).start();
+            HotFileCache fileCache = new HotFileCache(fileStore);
+            new Thread(new FileServer(fileStore, fileCache), "file-upload").start();
+            new Thread(new FileHttpServer(fileStore, fileCache), "file-http").start();
             System.out.println("💡 聊天服务器已启动，等待客户端请求...");
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,380 @@
+package com.chat.server.db;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * 轻量 JDBC 连接池：
+ * - 借出的是代理连接，close() 把物理连接还回池里，而不是断开 TCP；
+ * - 池满时借用方最多等待 connectionTimeoutMs，超时抛 SQLTransientConnectionException；
+ * - 空闲超过 validationIdleMs 的连接借出前先 isValid() 检查，超过 maxLifetimeMs 的连接归还时淘汰；
+ * - leakDetectionMs > 0 时记录借出位置，超时未归还的连接连同借出时的调用栈一起打印；
+ * - 统计活跃/空闲/等待数和借用等待时间，stats() 输出。
+ * 语句缓存交给驱动：MySQL 的 URL 会自动补上服务端预编译和 PreparedStatement 缓存参数。
+ */
+public class ConnectionPool implements DataSource {
+
+    public static class Config {
+        public int maxSize = 10;
+        public int minIdle = 2;
+        public long connectionTimeoutMs = 5_000;
+        public long idleTimeoutMs = 10 * 60_000;
+        public long maxLifetimeMs = 30 * 60_000;
+        public long validationIdleMs = 30_000;
+        public long leakDetectionMs = 0;
+        public long statsIntervalSec = 0;
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Config config;
+
+    private final Deque<PooledConnection> idle = new ArrayDeque<>(); // 受 this 保护，后进先出
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private int total;     // 已建立的物理连接数（含正在建立的），受 this 保护
+    private int waiting;   // 正在等待连接的线程数，受 this 保护
+    private boolean closed;
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper;
+
+    public ConnectionPool(String url, String user, String password, Config config) {
+        this.url = withStatementCache(url);
+        this.user = user;
+        this.password = password;
+        this.config = config;
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 5, 5, TimeUnit.SECONDS);
+        if (config.statsIntervalSec > 0) {
+            housekeeper.scheduleWithFixedDelay(() -> System.out.println("数据库连接池：" + stats()),
+                    config.statsIntervalSec, config.statsIntervalSec, TimeUnit.SECONDS);
+        }
+    }
+
+    /** MySQL Connector/J 默认在客户端拼接 SQL，开启服务端预编译并缓存语句，重复的登录查询只解析一次 */
+    static String withStatementCache(String url) {
+        if (url == null || !url.startsWith("jdbc:mysql:") || url.contains("cachePrepStmts")) return url;
+        return url + (url.contains("?") ? "&" : "?")
+                + "useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=256&prepStmtCacheSqlLimit=2048";
+    }
+
+    private static class PooledConnection {
+        final Connection physical;
+        final long createdAt = System.currentTimeMillis();
+        long lastUsed = System.currentTimeMillis();
+        long borrowedAt;
+        Throwable borrowSite;
+        boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.connectionTimeoutMs);
+        while (true) {
+            PooledConnection pc = null;
+            boolean create = false;
+            synchronized (this) {
+                if (closed) throw new SQLException("连接池已关闭");
+                waiting++;
+                try {
+                    while (idle.isEmpty() && total >= config.maxSize) {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0) {
+                            timeouts.incrementAndGet();
+                            throw new SQLTransientConnectionException("等待数据库连接超时（" + config.connectionTimeoutMs
+                                    + "ms），" + stats());
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                        if (closed) throw new SQLException("连接池已关闭");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("等待数据库连接时被中断", e);
+                } finally {
+                    waiting--;
+                }
+                if (!idle.isEmpty()) {
+                    pc = idle.pollFirst();
+                } else {
+                    total++; // 先占名额，在锁外建连接
+                    create = true;
+                }
+            }
+
+            if (create) {
+                try {
+                    pc = new PooledConnection(DriverManager.getConnection(url, user, password));
+                    created.incrementAndGet();
+                } catch (SQLException | RuntimeException e) {
+                    releaseSlot();
+                    throw e;
+                }
+            } else if (!isUsable(pc)) {
+                discard(pc);
+                continue;
+            }
+            return lend(pc, start);
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        long now = System.currentTimeMillis();
+        if (now - pc.createdAt > config.maxLifetimeMs) return false;
+        if (now - pc.lastUsed < config.validationIdleMs) return true;
+        try {
+            return pc.physical.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection lend(PooledConnection pc, long start) {
+        long waited = System.nanoTime() - start;
+        borrows.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        pc.borrowedAt = System.currentTimeMillis();
+        pc.borrowSite = config.leakDetectionMs > 0 ? new Throwable("连接借出位置") : null;
+        pc.leakReported = false;
+        borrowed.add(pc);
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new Handle(pc));
+    }
+
+    /** 代理连接：close() 归还，关闭后的任何调用都报错，防止归还后继续使用 */
+    private class Handle implements InvocationHandler {
+        private PooledConnection pc;
+
+        Handle(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                if (pc != null) {
+                    PooledConnection p = pc;
+                    pc = null;
+                    giveBack(p);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) return pc == null || pc.physical.isClosed();
+            if ("equals".equals(name)) return proxy == args[0];
+            if ("hashCode".equals(name)) return System.identityHashCode(proxy);
+            if ("toString".equals(name)) return "PooledConnection[" + (pc != null ? pc.physical : "closed") + "]";
+            if (pc == null) throw new SQLException("连接已归还连接池");
+            try {
+                return method.invoke(pc.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private void giveBack(PooledConnection pc) {
+        borrowed.remove(pc);
+        pc.lastUsed = System.currentTimeMillis();
+        boolean healthy;
+        try {
+            if (!pc.physical.getAutoCommit()) {
+                pc.physical.rollback(); // 未提交的事务不带给下一个借用者
+                pc.physical.setAutoCommit(true);
+            }
+            healthy = !pc.physical.isClosed() && pc.lastUsed - pc.createdAt < config.maxLifetimeMs;
+        } catch (SQLException e) {
+            healthy = false;
+        }
+        if (!healthy) {
+            discard(pc);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                total--;
+                closeQuietly(pc);
+                return;
+            }
+            idle.addFirst(pc);
+            notify();
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        closeQuietly(pc);
+        releaseSlot();
+    }
+
+    private synchronized void releaseSlot() {
+        total--;
+        notify();
+    }
+
+    private static void closeQuietly(PooledConnection pc) {
+        try {
+            pc.physical.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /** 定期：关闭空闲过久/寿命到期的连接，补足最小空闲数，报告疑似泄漏 */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (closed) return;
+                Iterator<PooledConnection> it = idle.descendingIterator(); // 从最久没用的开始
+                while (it.hasNext()) {
+                    PooledConnection pc = it.next();
+                    boolean expired = now - pc.createdAt > config.maxLifetimeMs;
+                    boolean idleTooLong = now - pc.lastUsed > config.idleTimeoutMs && total > config.minIdle;
+                    if (expired || idleTooLong) {
+                        it.remove();
+                        total--;
+                        closeQuietly(pc);
+                    }
+                }
+            }
+            fillMinIdle();
+            if (config.leakDetectionMs > 0) {
+                for (PooledConnection pc : borrowed) {
+                    if (!pc.leakReported && now - pc.borrowedAt > config.leakDetectionMs) {
+                        pc.leakReported = true;
+                        leaks.incrementAndGet();
+                        System.err.println("疑似数据库连接泄漏：已借出 " + (now - pc.borrowedAt) + "ms 未归还");
+                        if (pc.borrowSite != null) pc.borrowSite.printStackTrace();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fillMinIdle() {
+        while (true) {
+            synchronized (this) {
+                if (closed || idle.size() >= config.minIdle || total >= config.maxSize) return;
+                total++;
+            }
+            try {
+                PooledConnection pc = new PooledConnection(DriverManager.getConnection(url, user, password));
+                created.incrementAndGet();
+                synchronized (this) {
+                    idle.addLast(pc);
+                    notify();
+                }
+            } catch (SQLException e) {
+                releaseSlot();
+                System.err.println("预建数据库连接失败：" + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    public String stats() {
+        int idleCount, totalCount, waitingCount;
+        synchronized (this) {
+            idleCount = idle.size();
+            totalCount = total;
+            waitingCount = waiting;
+        }
+        long n = borrows.get();
+        return "active=" + borrowed.size() + " idle=" + idleCount + " total=" + totalCount + "/" + config.maxSize
+                + " waiting=" + waitingCount + " borrows=" + n
+                + " avgWaitMs=" + (n == 0 ? 0 : String.format("%.2f", waitNanos.get() / 1e6 / n))
+                + " maxWaitMs=" + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get())
+                + " timeouts=" + timeouts.get() + " created=" + created.get() + " leaks=" + leaks.get();
+    }
+
+    /** 关闭空闲连接；借出中的连接在归还时关闭 */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (PooledConnection pc : idle) {
+                closeQuietly(pc);
+                total--;
+            }
+            idle.clear();
+            notifyAll();
+        }
+        housekeeper.shutdownNow();
+    }
+
+    // ---------------------------------------------------------------- DataSource 其余方法
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("连接池使用固定账号");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException("不是 " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
@@ -1,29 +1,41 @@
 package com.chat.server.db;
 
+import com.chat.server.util.AppConfig;
+
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Properties;
-import java.io.InputStream;
 
+/**
+ * 数据库连接入口。连接来自进程内共享的连接池，用完 close() 即归还，
+ * 登录高峰时不再为每次请求重新建立 TCP 连接和 MySQL 认证。
+ */
 public class DBHelper {
-    private static String url;
-    private static String user;
-    private static String password;
+    private static final ConnectionPool pool;
 
     static {
-        try (InputStream input = DBHelper.class.getClassLoader().getResourceAsStream("application.properties")) {
-            Properties prop = new Properties();
-            prop.load(input);
-            url = prop.getProperty("db.url");
-            user = prop.getProperty("db.username");
-            password = prop.getProperty("db.password");
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        ConnectionPool.Config config = new ConnectionPool.Config();
+        config.maxSize = AppConfig.getInt("db.pool.maxSize", 10);
+        config.minIdle = AppConfig.getInt("db.pool.minIdle", 2);
+        config.connectionTimeoutMs = AppConfig.getLong("db.pool.connectionTimeoutMs", 5_000);
+        config.idleTimeoutMs = AppConfig.getLong("db.pool.idleTimeoutMs", 10 * 60_000);
+        config.maxLifetimeMs = AppConfig.getLong("db.pool.maxLifetimeMs", 30 * 60_000);
+        config.validationIdleMs = AppConfig.getLong("db.pool.validationIdleMs", 30_000);
+        config.leakDetectionMs = AppConfig.getLong("db.pool.leakDetectionMs", 10_000);
+        config.statsIntervalSec = AppConfig.getLong("db.pool.statsIntervalSec", 300);
+        pool = new ConnectionPool(AppConfig.get("db.url", null), AppConfig.get("db.username", ""),
+                AppConfig.get("db.password", ""), config);
     }
 
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        return pool.getConnection();
+    }
+
+    public static DataSource dataSource() {
+        return pool;
+    }
+
+    public static String poolStats() {
+        return pool.stats();
     }
 }
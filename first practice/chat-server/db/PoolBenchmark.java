@@ -0,0 +1,84 @@
+package com.chat.server.db;
+
+import java.sql.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 登录风暴压测：多个线程反复执行登录查询，对比每次 DriverManager 新建连接与连接池。
+ * 默认使用内嵌 H2（需把 h2.jar 放到 classpath），不依赖 MySQL：
+ *   java -cp .:h2.jar com.chat.server.db.PoolBenchmark [线程数=32] [每线程次数=500] [池大小=10] [jdbcUrl] [用户] [密码]
+ * 使用内嵌 H2 时会自动建 users 表并插入测试账号。
+ */
+public class PoolBenchmark {
+    private static final String LOGIN_SQL = "SELECT * FROM users WHERE username=? AND password=?";
+
+    interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String url = args.length > 3 ? args[3] : "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1";
+        String user = args.length > 4 ? args[4] : "sa";
+        String password = args.length > 5 ? args[5] : "";
+
+        if (url.startsWith("jdbc:h2:")) {
+            try (Connection c = DriverManager.getConnection(url, user, password);
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE IF NOT EXISTS users (username VARCHAR(64) PRIMARY KEY, password VARCHAR(255))");
+                st.execute("MERGE INTO users KEY(username) VALUES ('bench', 'bench')");
+            }
+        }
+
+        run("DriverManager", threads, perThread, () -> DriverManager.getConnection(url, user, password));
+
+        ConnectionPool.Config config = new ConnectionPool.Config();
+        config.maxSize = poolSize;
+        config.leakDetectionMs = 5_000;
+        ConnectionPool pool = new ConnectionPool(url, user, password, config);
+        try {
+            run("pool(" + poolSize + ")", threads, perThread, pool::getConnection);
+            System.out.println("连接池统计：" + pool.stats());
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static void run(String label, int threads, int perThread, ConnectionSource source) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong failures = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        try (Connection conn = source.get();
+                             PreparedStatement ps = conn.prepareStatement(LOGIN_SQL)) {
+                            ps.setString(1, "bench");
+                            ps.setString(2, "bench");
+                            try (ResultSet rs = ps.executeQuery()) {
+                                rs.next();
+                            }
+                        } catch (SQLException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        long total = (long) threads * perThread;
+        System.out.printf("%-14s: %d 次登录查询，%.2f 秒，%.0f 次/秒，失败 %d%n",
+                label, total, seconds, total / seconds, failures.get());
+    }
+}
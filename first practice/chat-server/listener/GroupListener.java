@@ -0,0 +1,147 @@
+package com.chat.server.listener;
+
+import com.chat.server.mq.MQManager;
+import com.chat.server.service.ChatHistory;
+import com.chat.server.service.GroupService;
+import com.chat.server.service.SessionTokens;
+import com.chat.server.util.AppConfig;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 群聊：
+ * - group.request：以 direct reply-to 发 {"action": "join" | "leave" | "list" | "members", "username": ..., "token": 登录令牌, "room": ...}，
+ *   回复只回给发起请求的连接：{"type":"group_result","action":...,"status":"success"|"fail",...}；
+ *   没有 replyTo 的请求无法安全回复，直接丢弃；
+ * - group.send：客户端把群消息 {"type":"group","from":...,"token":...,"room":...,...} 发到这里，
+ *   服务端校验令牌与成员身份、去掉令牌后写入聊天记录，带上偏移后只向 chat.group.<群名> 发布一次；
+ *   带 replyTo 时同样回复一条 group_result（action=send）。
+ *   令牌与 username / from 不符时一律回复 status=fail，不能代替别人加群、退群或发言。
+ *   在线成员用自己的临时队列绑定该 routingKey，离线成员上线后按偏移从聊天记录补齐，
+ *   broker 上不为每个成员保留持久副本。
+ */
+public class GroupListener {
+
+    private final int PREFETCH = AppConfig.getInt("group.consumer.prefetch", 64);
+
+    private final MQManager mqManager;
+    private final GroupService groups;
+    private final ChatHistory history;
+    private final SessionTokens sessions;
+
+    public GroupListener(MQManager mqManager, GroupService groups, ChatHistory history, SessionTokens sessions) {
+        this.mqManager = mqManager;
+        this.groups = groups;
+        this.history = history;
+        this.sessions = sessions;
+    }
+
+    public void startListening() throws Exception {
+        mqManager.consumeQueue("group.request", 1, PREFETCH, delivery -> {
+            if (delivery.replyTo() == null) {
+                System.err.println("丢弃没有 replyTo 的群操作请求");
+                delivery.ack();
+                return;
+            }
+            JSONObject req = delivery.json();
+            String action = req.optString("action", "");
+            String username = req.optString("username", "");
+            String room = req.optString("room", "");
+
+            JSONObject resp = new JSONObject();
+            resp.put("type", "group_result");
+            resp.put("action", action);
+            resp.put("room", room);
+            try {
+                if (!sessions.verify(username, req.optString("token", null))) {
+                    fail(resp, "未登录或会话已失效");
+                } else if ("list".equals(action)) {
+                    resp.put("rooms", new JSONArray(groups.roomsOf(username)));
+                    resp.put("status", "success");
+                } else if (!GroupService.isValidName(room)) {
+                    fail(resp, "群名只能包含字母、数字、汉字、下划线和横线");
+                } else if ("join".equals(action)) {
+                    groups.join(room, username);
+                    resp.put("status", "success");
+                } else if ("leave".equals(action)) {
+                    groups.leave(room, username);
+                    resp.put("status", "success");
+                } else if ("members".equals(action)) {
+                    resp.put("members", new JSONArray(groups.membersOf(room)));
+                    resp.put("status", "success");
+                } else {
+                    fail(resp, "未知操作：" + action);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                fail(resp, "数据库错误，请稍后重试");
+            }
+            reply(delivery, resp);
+        });
+
+        // 单个消费者，群消息的偏移顺序与发布顺序一致
+        mqManager.consumeQueue("group.send", 1, PREFETCH, delivery -> {
+            JSONObject msg = delivery.json();
+            String from = msg.optString("from", "");
+            String room = msg.optString("room", "");
+            String token = msg.optString("token", null);
+            msg.remove("token"); // 令牌不能进聊天记录，更不能广播出去
+            JSONObject resp = new JSONObject();
+            resp.put("type", "group_result");
+            resp.put("action", "send");
+            resp.put("room", room);
+            if (!sessions.verify(from, token)) {
+                fail(resp, "未登录或会话已失效");
+                reply(delivery, resp);
+                return;
+            }
+            if (!groups.isMember(room, from)) {
+                fail(resp, "你不在群 " + room + " 中");
+                reply(delivery, resp);
+                return;
+            }
+            msg.put("type", "group");
+            try {
+                msg.put("offset", history.append(GroupService.conversationOf(room), msg.toString()));
+            } catch (Exception e) {
+                e.printStackTrace();
+                delivery.reject();
+                return;
+            }
+            // 广播得到 broker 确认后才 ack；重试后仍失败时丢弃请求，消息已在聊天记录里，成员可从记录补齐
+            mqManager.sendStamped("chat.group." + room, msg).whenComplete((v, err) -> {
+                if (err == null) {
+                    resp.put("status", "success");
+                    resp.put("offset", msg.getLong("offset"));
+                    reply(delivery, resp);
+                } else {
+                    System.err.println("群消息广播失败 [" + room + "]：" + err.getMessage());
+                    delivery.reject();
+                }
+            });
+        });
+
+        System.out.println("✅ 群聊监听已启动...");
+    }
+
+    private static void fail(JSONObject resp, String message) {
+        resp.put("status", "fail");
+        resp.put("message", message);
+    }
+
+    // 以 direct reply-to 回复，得到 broker 确认后才 ack 请求；没有 replyTo（不等回复的旧客户端）时直接 ack
+    private void reply(MQManager.Delivery delivery, JSONObject resp) {
+        if (delivery.replyTo() == null) {
+            delivery.ack();
+            return;
+        }
+        mqManager.reply(delivery, resp).whenComplete((v, err) -> {
+            if (err == null) {
+                delivery.ack();
+            } else {
+                System.err.println("回复群操作请求失败：" + err.getMessage());
+                delivery.reject();
+            }
+        });
+    }
+}
@@ -0,0 +1,165 @@
+package com.chat.server.listener;
+
+import com.chat.server.mq.MQManager;
+import com.chat.server.service.ChatHistory;
+import com.chat.server.service.GroupService;
+import com.chat.server.service.SessionTokens;
+import com.chat.server.util.AppConfig;
+import com.chat.server.util.SegmentedLog;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 聊天记录：
+ * - 客户端把公共/私聊消息发到 chat.send：先写入日志，带上偏移（offset）再发布到 chat.public / chat.user.<to>，
+ *   客户端据偏移与聊天记录去重；群消息同理由 GroupListener 处理；
+ * - 持久队列 server.chat.history 绑定 chat.public 与 chat.user.*，旧客户端直接发布的消息写入日志后才 ack；
+ *   chat.send 转发出去的已经入库，跳过。是否转发出去的看消息头里服务端盖的章（MQManager.sendStamped），
+ *   不看消息体里客户端也能填的 offset，客户端自带的 offset 在入库前去掉；
+ * - 客户端以 direct reply-to 向 history.request 发 {"username": ..., "token": 登录令牌, "since": 偏移(可选), "limit": 条数}，
+ *   回复只回给发起请求的连接：{"type":"history","messages":[{offset,ts,conv,msg}],"next":偏移}。
+ *   令牌与用户名不符时回复 status=fail；没有 replyTo 的请求无法安全回复，直接丢弃。
+ *   只返回公共频道、与该用户有关的私聊和他所在群的消息（群消息由 GroupListener 直接写入）。
+ */
+public class HistoryListener {
+    private static final String QUEUE = "server.chat.history";
+
+    private final int MAX_LIMIT = AppConfig.getInt("history.maxLimit", 500);
+    private final int PREFETCH = AppConfig.getInt("history.consumer.prefetch", 64);
+
+    private final MQManager mqManager;
+    private final ChatHistory history;
+    private final GroupService groups;
+    private final SessionTokens sessions;
+
+    public HistoryListener(MQManager mqManager, ChatHistory history, GroupService groups, SessionTokens sessions) {
+        this.mqManager = mqManager;
+        this.history = history;
+        this.groups = groups;
+        this.sessions = sessions;
+    }
+
+    public void startListening() throws Exception {
+        mqManager.bindQueue(QUEUE, "chat.public");
+        mqManager.bindQueue(QUEUE, "chat.user.*");
+        // 单个消费者，保证写入顺序与投递顺序一致
+        mqManager.consumeQueue(QUEUE, 1, PREFETCH, delivery -> {
+            if (delivery.stamped()) { // 服务端转发的，已经入库
+                delivery.ack();
+                return;
+            }
+            JSONObject msg = delivery.json();
+            String conversation = conversationOf(msg);
+            if (conversation != null) {
+                try {
+                    if (msg.remove("offset") != null) {
+                        history.append(conversation, msg.toString());
+                    } else {
+                        history.append(conversation, delivery.body());
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    delivery.reject();
+                    return;
+                }
+            }
+            delivery.ack();
+        });
+
+        // 单个消费者，偏移顺序与转发顺序一致
+        mqManager.consumeQueue("chat.send", 1, PREFETCH, delivery -> {
+            JSONObject msg = delivery.json();
+            msg.remove("offset");
+            String conversation = conversationOf(msg);
+            if (conversation == null) {
+                delivery.ack();
+                return;
+            }
+            String to = msg.optString("to", "");
+            try {
+                msg.put("offset", history.append(conversation, msg.toString()));
+            } catch (Exception e) {
+                e.printStackTrace();
+                delivery.reject();
+                return;
+            }
+            // 转发得到 broker 确认后才 ack；重试后仍失败时丢弃，消息已在聊天记录里，对方可从记录补齐
+            mqManager.sendStamped(to.isEmpty() ? "chat.public" : "chat.user." + to, msg).whenComplete((v, err) -> {
+                if (err == null) {
+                    delivery.ack();
+                } else {
+                    System.err.println("聊天消息转发失败：" + err.getMessage());
+                    delivery.reject();
+                }
+            });
+        });
+
+        mqManager.consumeQueue("history.request", 1, PREFETCH, delivery -> {
+            if (delivery.replyTo() == null) {
+                System.err.println("丢弃没有 replyTo 的聊天记录请求");
+                delivery.ack();
+                return;
+            }
+            JSONObject req = delivery.json();
+            String username = req.optString("username", "");
+            if (!sessions.verify(username, req.optString("token", null))) {
+                JSONObject resp = new JSONObject();
+                resp.put("type", "history");
+                resp.put("status", "fail");
+                resp.put("message", "未登录或会话已失效");
+                resp.put("messages", new JSONArray());
+                reply(delivery, resp);
+                return;
+            }
+            int limit = Math.max(1, Math.min(req.optInt("limit", 50), MAX_LIMIT));
+            long since = req.optLong("since", -1);
+
+            List<String> conversations = history.conversationsOf(username);
+            for (String room : groups.roomsOf(username)) conversations.add(GroupService.conversationOf(room));
+            List<SegmentedLog.Record> records = history.recent(conversations, since, limit);
+            JSONArray messages = new JSONArray();
+            for (SegmentedLog.Record r : records) {
+                JSONObject m = new JSONObject();
+                m.put("offset", r.offset);
+                m.put("ts", r.timestamp);
+                m.put("conv", r.key);
+                m.put("msg", new String(r.payload, StandardCharsets.UTF_8));
+                messages.put(m);
+            }
+            JSONObject resp = new JSONObject();
+            resp.put("type", "history");
+            resp.put("status", "success");
+            resp.put("messages", messages);
+            resp.put("next", records.isEmpty() ? since : records.get(records.size() - 1).offset);
+            reply(delivery, resp);
+        });
+        history.start();
+        System.out.println("✅ 聊天记录监听已启动...");
+    }
+
+    // 回复得到 broker 确认后才 ack 请求
+    private void reply(MQManager.Delivery delivery, JSONObject resp) {
+        mqManager.reply(delivery, resp).whenComplete((v, err) -> {
+            if (err == null) {
+                delivery.ack();
+            } else {
+                System.err.println("回复聊天记录请求失败：" + err.getMessage());
+                delivery.reject();
+            }
+        });
+    }
+
+    /** 按消息内容归入会话；在线名单等系统消息不入库 */
+    private static String conversationOf(JSONObject msg) {
+        String type = msg.optString("type", "text");
+        if ("presence".equals(type)) return null;
+        String from = msg.optString("from", "");
+        String to = msg.optString("to", "");
+        if (to.isEmpty()) return ChatHistory.PUBLIC;
+        if (from.isEmpty()) return null;
+        return ChatHistory.conversationOf(from, to);
+    }
+}
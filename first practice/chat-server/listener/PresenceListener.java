@@ -0,0 +1,45 @@
+package com.chat.server.listener;
+
+import com.chat.server.mq.MQManager;
+import com.chat.server.service.PresenceService;
+import org.json.JSONObject;
+
+/**
+ * 接收客户端心跳：routingKey 为 presence.heartbeat.<用户名>，
+ * 消息体 {"username": ..., "status": "online" | "offline"}。
+ * 客户端订阅 presence.delta 之后向 presence.request 发请求（direct reply-to），回复完整在线名单。
+ */
+public class PresenceListener {
+
+    private final MQManager mqManager;
+    private final PresenceService presence;
+
+    public PresenceListener(MQManager mqManager, PresenceService presence) {
+        this.mqManager = mqManager;
+        this.presence = presence;
+    }
+
+    public void startListening() throws Exception {
+        mqManager.subscribeBroadcastJson("presence.heartbeat.*", hb -> {
+            String username = hb.optString("username", "");
+            if (username.isEmpty()) return;
+            if ("offline".equals(hb.optString("status", "online"))) {
+                presence.offline(username);
+            } else {
+                presence.heartbeat(username);
+            }
+        });
+        mqManager.consumeQueue("presence.request", 1, 16, delivery -> {
+            if (delivery.replyTo() == null) { // 没有回复地址无法回复
+                delivery.ack();
+                return;
+            }
+            mqManager.reply(delivery, presence.snapshot()).whenComplete((v, err) -> {
+                if (err == null) delivery.ack();
+                else delivery.reject();
+            });
+        });
+        presence.start();
+        System.out.println("✅ 在线状态心跳监听已启动...");
+    }
+}
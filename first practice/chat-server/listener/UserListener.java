@@ -1,67 +1,106 @@
 package com.chat.server.listener;
 
 import com.chat.server.mq.MQManager;
+import com.chat.server.service.PresenceService;
+import com.chat.server.service.RegisterBatcher;
+import com.chat.server.service.SessionTokens;
 import com.chat.server.service.UserService;
+import com.chat.server.util.AppConfig;
 import org.json.JSONObject;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
 public class UserListener {
 
+    private final int LOGIN_WORKERS = AppConfig.getInt("user.login.workers", Runtime.getRuntime().availableProcessors());
+    private final int REGISTER_WORKERS = AppConfig.getInt("user.register.workers", 2);
+    private final int PREFETCH = AppConfig.getInt("user.consumer.prefetch", 16);
+
     private final MQManager mqManager;
     private final UserService userService;
+    private final SessionTokens sessions;
 
 
-    public UserListener(MQManager mqManager) {
+    public UserListener(MQManager mqManager, PresenceService presence, SessionTokens sessions) {
         this.mqManager = mqManager;
-        this.userService = new UserService();
+        this.userService = new UserService(presence);
+        this.sessions = sessions;
     }
 
     public void startListening() throws Exception {
-        // 监听注册队列
-        mqManager.consumeQueue("user.request.register", message -> {
-            System.out.println(" 收到注册消息：" + message);
-            JSONObject req = new JSONObject(message);
+        // 监听注册队列；密码哈希在 UserService 的线程池里完成，消费线程只负责转交，
+        // 回复发出后才 ack，服务端中途崩溃时消息会被重新投递
+        mqManager.consumeQueue("user.request.register", REGISTER_WORKERS, PREFETCH, delivery -> {
+            JSONObject req = delivery.json();
             String username = req.getString("username");
+            System.out.println("收到注册消息：" + username); // 只记用户名，请求里有明文密码
             String password = req.getString("password");
 
-            JSONObject resp = new JSONObject();
-            if (userService.register(username, password)) {
-                resp.put("status", "success");
-                resp.put("message", "注册成功");
-            } else {
-                resp.put("status", "fail");
-                resp.put("message", "用户名已存在或数据库错误");
-            }
-
-            try {
-                mqManager.sendMessage("user.response."+username, resp.toString());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            userService.registerAsync(username, password).whenComplete((result, err) -> {
+                JSONObject resp = new JSONObject();
+                if (err == null && result == RegisterBatcher.Result.CREATED) {
+                    resp.put("status", "success");
+                    resp.put("message", "注册成功");
+                } else {
+                    resp.put("status", "fail");
+                    if (isBusy(err)) {
+                        resp.put("message", "服务器繁忙，请稍后重试");
+                    } else if (result == RegisterBatcher.Result.DUPLICATE) {
+                        resp.put("message", "用户名已存在");
+                    } else {
+                        resp.put("message", "数据库错误，请稍后重试");
+                    }
+                }
+                reply(username, resp, delivery);
+            });
         });
 
         // 监听登录队列
-        mqManager.consumeQueue("user.request.login", message -> {
-            System.out.println("收到登录消息：" + message);
-            JSONObject req = new JSONObject(message);
+        mqManager.consumeQueue("user.request.login", LOGIN_WORKERS, PREFETCH, delivery -> {
+            JSONObject req = delivery.json();
             String username = req.getString("username");
+            System.out.println("收到登录消息：" + username); // 只记用户名，请求里有明文密码
             String password = req.getString("password");
 
-            JSONObject resp = new JSONObject();
-            if (userService.login(username, password)) {
-                resp.put("status", "success");
-                resp.put("message", "登录成功");
-            } else {
-                resp.put("status", "fail");
-                resp.put("message", "用户名或密码错误");
-            }
+            userService.loginAsync(username, password).whenComplete((ok, err) -> {
+                JSONObject resp = new JSONObject();
+                if (err == null && ok) {
+                    resp.put("status", "success");
+                    resp.put("message", "登录成功");
+                    // 令牌只经 direct reply-to 回给本连接；旧客户端的 user.response.<用户名> 谁都能订阅，不发令牌
+                    if (delivery.replyTo() != null) resp.put("token", sessions.issue(username));
+                } else {
+                    resp.put("status", "fail");
+                    resp.put("message", isBusy(err) ? "服务器繁忙，请稍后重试" : "用户名或密码错误");
+                }
+                reply(username, resp, delivery);
+            });
+        });
+
+        System.out.println("✅ 用户注册与登录监听已启动...");
+    }
 
-            try {
-                mqManager.sendMessage("user.response."+username, resp.toString());
-            } catch (Exception e) {
-                e.printStackTrace();
+    // 新客户端带 replyTo（direct reply-to），直接回给它；旧客户端仍走 user.response.<用户名>
+    // 回复得到 broker 确认后才 ack 请求，重试仍失败时丢弃请求（注册可能已写库，不能重放）
+    private void reply(String username, JSONObject resp, MQManager.Delivery delivery) {
+        CompletableFuture<Void> sent = delivery.replyTo() != null
+                ? mqManager.reply(delivery, resp)
+                : mqManager.sendMessage("user.response." + username, resp);
+        sent.whenComplete((v, err) -> {
+            if (err == null) {
+                delivery.ack();
+            } else {
+                System.err.println("回复 " + username + " 失败：" + err.getMessage());
+                delivery.reject();
             }
         });
+    }
 
-        System.out.println("✅ 用户注册与登录监听已启动...");
+    private static boolean isBusy(Throwable err) {
+        if (err instanceof CompletionException) err = err.getCause();
+        if (err != null && !(err instanceof RejectedExecutionException)) err.printStackTrace();
+        return err instanceof RejectedExecutionException;
     }
 }
@@ -0,0 +1,143 @@
+package com.chat.server.mq;
+
+import org.json.JSONObject;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 消息编解码对比：
+ *   json   —— 现有路径：JSONObject.toString + getBytes / new String + new JSONObject
+ *   binary —— MessageCodec.encode / decode
+ * 以及接收端的实际投递路径（消息体已经在手里，只算交到处理函数手上这一步）：
+ *   收 json        —— MessageCodec.toJson(JSON, body)
+ *   收 binary→文本 —— 以前的做法：toText 解码后转成文本，处理函数再 new JSONObject 解析一遍
+ *   收 binary      —— 现在的做法：toJson 直接解码成 JSONObject
+ * 输出每条消息的平均字节数、每次操作耗时，以及（HotSpot 上）每次操作分配的字节数。
+ *
+ * 用法：java com.chat.server.mq.CodecBenchmark [每轮次数=200000] [轮数=5]
+ */
+public class CodecBenchmark {
+
+    private static volatile Object sink; // 防止结果被 JIT 消除
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        JSONObject[] samples = samples();
+
+        int jsonBytes = 0, binaryBytes = 0;
+        for (JSONObject m : samples) {
+            jsonBytes += m.toString().getBytes(StandardCharsets.UTF_8).length;
+            binaryBytes += MessageCodec.encode(m).length;
+        }
+        System.out.printf("平均大小  json=%d 字节  binary=%d 字节%n", jsonBytes / samples.length, binaryBytes / samples.length);
+
+        byte[][] jsonBodies = new byte[samples.length][], binaryBodies = new byte[samples.length][];
+        for (int i = 0; i < samples.length; i++) {
+            jsonBodies[i] = samples[i].toString().getBytes(StandardCharsets.UTF_8);
+            binaryBodies[i] = MessageCodec.encode(samples[i]);
+        }
+
+        // 预热 JIT
+        run(samples, iterations, false);
+        run(samples, iterations, true);
+        for (int mode = 0; mode < 3; mode++) receive(jsonBodies, binaryBodies, iterations, mode);
+
+        long[] json = new long[2], binary = new long[2];
+        long[][] recv = new long[3][2];
+        for (int i = 0; i < rounds; i++) {
+            add(json, run(samples, iterations, false));
+            add(binary, run(samples, iterations, true));
+            for (int mode = 0; mode < 3; mode++) add(recv[mode], receive(jsonBodies, binaryBodies, iterations, mode));
+        }
+        long ops = (long) iterations * rounds;
+        System.out.printf("json   : %6.0f ns/次  %s%n", json[0] / (double) ops, alloc(json[1], ops));
+        System.out.printf("binary : %6.0f ns/次  %s%n", binary[0] / (double) ops, alloc(binary[1], ops));
+        String[] names = {"收 json        ", "收 binary→文本 ", "收 binary      "};
+        for (int mode = 0; mode < 3; mode++) {
+            System.out.printf("%s: %6.0f ns/次  %s%n", names[mode], recv[mode][0] / (double) ops, alloc(recv[mode][1], ops));
+        }
+    }
+
+    /** 一次操作 = 把一条收到的消息体变成处理函数拿到的 JSONObject；mode 见类注释的三种接收路径 */
+    private static long[] receive(byte[][] jsonBodies, byte[][] binaryBodies, int iterations, int mode) {
+        long allocStart = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            int k = i % jsonBodies.length;
+            if (mode == 0) {
+                sink = MessageCodec.toJson(MessageCodec.JSON, jsonBodies[k]);
+            } else if (mode == 1) {
+                sink = new JSONObject(MessageCodec.toText(MessageCodec.BINARY, binaryBodies[k]));
+            } else {
+                sink = MessageCodec.toJson(MessageCodec.BINARY, binaryBodies[k]);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocEnd = allocatedBytes();
+        return new long[]{elapsed, allocStart < 0 ? -1 : allocEnd - allocStart};
+    }
+
+    private static void add(long[] total, long[] r) {
+        total[0] += r[0];
+        total[1] += r[1];
+    }
+
+    private static String alloc(long bytes, long ops) {
+        return bytes < 0 ? "" : String.format("%5d 字节分配/次", bytes / ops);
+    }
+
+    /** 一次操作 = 编码一条 + 解码回 JSONObject，返回 {耗时纳秒, 分配字节（不支持时为 -1）} */
+    private static long[] run(JSONObject[] samples, int iterations, boolean binary) {
+        long allocStart = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            JSONObject m = samples[i % samples.length];
+            if (binary) {
+                sink = MessageCodec.decode(MessageCodec.encode(m));
+            } else {
+                byte[] body = m.toString().getBytes(StandardCharsets.UTF_8);
+                sink = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocEnd = allocatedBytes();
+        return new long[]{elapsed, allocStart < 0 ? -1 : allocEnd - allocStart};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static JSONObject[] samples() {
+        JSONObject pub = new JSONObject();
+        pub.put("type", "public");
+        pub.put("from", "alice");
+        pub.put("content", "大家好，今晚八点开会");
+
+        JSONObject dm = new JSONObject();
+        dm.put("type", "private");
+        dm.put("from", "bob");
+        dm.put("to", "alice");
+        dm.put("content", "ok, see you then");
+
+        JSONObject file = new JSONObject();
+        file.put("type", "file");
+        file.put("from", "carol");
+        file.put("filename", "设计文档-v3.pdf");
+        file.put("url", "/files/9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08");
+        file.put("timestamp", System.currentTimeMillis());
+
+        JSONObject login = new JSONObject();
+        login.put("type", "login");
+        login.put("username", "dave");
+        login.put("password", "correct horse battery staple");
+
+        return new JSONObject[]{pub, dm, file, login};
+    }
+}
@@ -0,0 +1,242 @@
+package com.chat.server.mq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带发布确认的发送端：
+ * - 若干个开启 confirm 模式的 channel 组成池，发送时借出一个独占使用，发完立即归还，
+ *   池里只在借还的一瞬间加锁，网络 I/O 期间不持有任何公共锁；
+ * - 每条消息按 channel 的发布序号登记，broker 的 ack（可一次确认多条）到达后完成对应的 future；
+ * - nack、channel 断开或超过 confirmTimeoutMs 仍未确认的消息自动重发，重试 maxRetries 次后 future 以异常结束；
+ *   定时线程只负责到点把重发交给 resender 线程池，借 channel 可能要等，不能卡住超时检查和其他重发。
+ * 超时重发可能造成重复投递（at-least-once），接收方需能容忍。
+ */
+public class ConfirmPublisher {
+
+    private static class Pending {
+        final String exchange;
+        final String routingKey;
+        final AMQP.BasicProperties props;
+        final byte[] body;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        int attempts;
+        volatile long sentAt;
+
+        Pending(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.props = props;
+            this.body = body;
+        }
+    }
+
+    private class PooledChannel {
+        final Channel channel;
+        final ConcurrentSkipListMap<Long, Pending> outstanding = new ConcurrentSkipListMap<>(); // 发布序号 → 消息
+
+        PooledChannel(Channel channel) throws IOException {
+            this.channel = channel;
+            channel.confirmSelect();
+            channel.addConfirmListener((seq, multiple) -> settle(this, seq, multiple, true),
+                    (seq, multiple) -> settle(this, seq, multiple, false));
+            channel.addShutdownListener(cause -> onShutdown(this));
+        }
+    }
+
+    private final Connection connection;
+    private final String exchange;
+    private final int maxRetries;
+    private final long confirmTimeoutMs;
+    private final BlockingQueue<PooledChannel> idle = new LinkedBlockingQueue<>();
+    private final Set<PooledChannel> all = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer;
+    private final ExecutorService resender;
+    private final AtomicLong retried = new AtomicLong();
+    private volatile boolean closed;
+
+    public ConfirmPublisher(Connection connection, String exchange, int channels, int maxRetries, long confirmTimeoutMs) throws IOException {
+        this.connection = connection;
+        this.exchange = exchange;
+        this.maxRetries = maxRetries;
+        this.confirmTimeoutMs = confirmTimeoutMs;
+        for (int i = 0; i < channels; i++) {
+            PooledChannel pc = new PooledChannel(connection.createChannel());
+            all.add(pc);
+            idle.add(pc);
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mq-publish-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.SECONDS);
+        AtomicLong n = new AtomicLong();
+        resender = Executors.newFixedThreadPool(Math.max(1, channels), r -> {
+            Thread t = new Thread(r, "mq-publish-resend-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.println("发送通道池已启动：" + channels + " 个 channel，确认超时 " + confirmTimeoutMs + "ms");
+    }
+
+    /** 发送一条消息到聊天 exchange，broker 确认后 future 正常完成 */
+    public CompletableFuture<Void> publish(String routingKey, AMQP.BasicProperties props, byte[] body) {
+        return publish(exchange, routingKey, props, body);
+    }
+
+    /** 发送到指定 exchange，例如用默认 exchange（""）回复 direct reply-to 请求 */
+    public CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        Pending p = new Pending(exchange, routingKey, props, body);
+        if (closed) {
+            p.future.completeExceptionally(new IOException("发送端已关闭"));
+        } else {
+            send(p);
+        }
+        return p.future;
+    }
+
+    private void send(Pending p) {
+        p.attempts++;
+        PooledChannel pc;
+        try {
+            pc = borrow();
+        } catch (Exception e) {
+            retry(p, e);
+            return;
+        }
+        long seq = pc.channel.getNextPublishSeqNo();
+        try {
+            p.sentAt = System.currentTimeMillis();
+            pc.outstanding.put(seq, p); // 先登记再发送，ack 可能比 basicPublish 返回得更早
+            pc.channel.basicPublish(p.exchange, p.routingKey, p.props, p.body);
+        } catch (Exception e) {
+            if (pc.outstanding.remove(seq, p)) retry(p, e);
+        } finally {
+            release(pc);
+        }
+    }
+
+    private PooledChannel borrow() throws Exception {
+        long deadline = System.currentTimeMillis() + confirmTimeoutMs;
+        while (true) {
+            long left = deadline - System.currentTimeMillis();
+            PooledChannel pc = left > 0 ? idle.poll(left, TimeUnit.MILLISECONDS) : null;
+            if (pc == null) throw new TimeoutException("等待发送通道超时");
+            if (pc.channel.isOpen()) return pc;
+            replace(pc);
+        }
+    }
+
+    private void release(PooledChannel pc) {
+        if (pc.channel.isOpen()) idle.offer(pc);
+        else replace(pc);
+    }
+
+    /** 用新 channel 顶替已断开的；连接也断了时稍后再试 */
+    private void replace(PooledChannel dead) {
+        if (!all.remove(dead) || closed) return;
+        try {
+            PooledChannel pc = new PooledChannel(connection.createChannel());
+            all.add(pc);
+            idle.offer(pc);
+        } catch (Exception e) {
+            System.err.println("重建发送通道失败，1 秒后重试：" + e.getMessage());
+            all.add(dead);
+            timer.schedule(() -> replace(dead), 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private void settle(PooledChannel pc, long seq, boolean multiple, boolean ack) {
+        List<Pending> done;
+        if (multiple) {
+            NavigableMap<Long, Pending> head = pc.outstanding.headMap(seq, true);
+            done = new ArrayList<>(head.values());
+            head.clear();
+        } else {
+            Pending p = pc.outstanding.remove(seq);
+            done = p == null ? Collections.emptyList() : Collections.singletonList(p);
+        }
+        for (Pending p : done) {
+            if (ack) p.future.complete(null);
+            else retry(p, new IOException("broker 拒收消息 [" + p.routingKey + "]"));
+        }
+    }
+
+    private void onShutdown(PooledChannel pc) {
+        List<Pending> lost = new ArrayList<>(pc.outstanding.values());
+        pc.outstanding.clear();
+        for (Pending p : lost) retry(p, new IOException("发送通道已断开"));
+    }
+
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - confirmTimeoutMs;
+        for (PooledChannel pc : all) {
+            for (Map.Entry<Long, Pending> e : pc.outstanding.entrySet()) {
+                Pending p = e.getValue();
+                if (p.sentAt < cutoff && pc.outstanding.remove(e.getKey(), p)) {
+                    retry(p, new TimeoutException("等待确认超时 [" + p.routingKey + "]"));
+                }
+            }
+        }
+    }
+
+    private void retry(Pending p, Exception cause) {
+        if (closed || p.attempts > maxRetries) {
+            System.err.println("消息发送失败 [" + p.routingKey + "]，已尝试 " + p.attempts + " 次：" + cause.getMessage());
+            p.future.completeExceptionally(cause);
+            return;
+        }
+        retried.incrementAndGet();
+        try {
+            timer.schedule(() -> resend(p, cause), 100L * p.attempts, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            p.future.completeExceptionally(cause);
+        }
+    }
+
+    /** 在 resender 上重发：send 里借 channel 最多会等 confirmTimeoutMs */
+    private void resend(Pending p, Exception cause) {
+        try {
+            resender.execute(() -> send(p));
+        } catch (RejectedExecutionException e) {
+            p.future.completeExceptionally(cause);
+        }
+    }
+
+    public int unconfirmed() {
+        int n = 0;
+        for (PooledChannel pc : all) n += pc.outstanding.size();
+        return n;
+    }
+
+    /** 停止接受新消息，等待已发出的消息全部确认（最多 timeoutMs），再关闭 channel */
+    public void close(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        closed = true;
+        try {
+            while (unconfirmed() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (unconfirmed() > 0) System.err.println("仍有 " + unconfirmed() + " 条消息未确认");
+        System.out.println("发送端关闭，累计重发 " + retried.get() + " 次");
+        timer.shutdownNow();
+        resender.shutdownNow();
+        for (PooledChannel pc : all) {
+            try {
+                if (pc.channel.isOpen()) pc.channel.close();
+            } catch (Exception e) {
+                System.err.println("关闭发送通道失败：" + e.getMessage());
+            }
+        }
+    }
+}
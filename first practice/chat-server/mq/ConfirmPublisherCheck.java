@@ -0,0 +1,174 @@
+package com.chat.server.mq;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ConfirmPublisher 的故障注入检查，不需要 RabbitMQ：用动态代理伪造 Connection / Channel，
+ * 每次 basicPublish 按比例随机丢弃（等不到确认，靠超时重发）、nack、或让 channel 断开，其余延迟几毫秒后 ack
+ * （每 5 条里有一条用 multiple=true 一次确认多条）。多个线程并发发送，最后检查：
+ *   - 每个 future 都已结束：要么确认成功，要么重试用尽后失败，没有悬空的；
+ *   - 同一个 channel 从未被两个线程同时使用。
+ *
+ * 用法：java com.chat.server.mq.ConfirmPublisherCheck [消息数=20000] [发送线程=8] [channel 数=4]
+ */
+public class ConfirmPublisherCheck {
+    private static final int DROP_PERCENT = 3;
+    private static final int NACK_PERCENT = 3;
+    private static final int CLOSE_PERMILLE = 5;
+
+    private static final AtomicInteger published = new AtomicInteger();
+    private static final AtomicInteger concurrentUse = new AtomicInteger();
+    private static final ScheduledExecutorService broker = Executors.newScheduledThreadPool(2, r -> {
+        Thread t = new Thread(r, "fake-broker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** 一个伪造 channel 的状态；ConfirmPublisher 只用到下面 switch 里的几个方法 */
+    private static class FakeChannel {
+        long nextSeq = 1;
+        volatile boolean open = true;
+        final AtomicBoolean busy = new AtomicBoolean();
+        ConfirmCallback ack;
+        ConfirmCallback nack;
+        final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        Channel proxy;
+
+        void publish() throws IOException {
+            if (!busy.compareAndSet(false, true)) concurrentUse.incrementAndGet();
+            try {
+                if (!open) throw new IOException("channel 已关闭");
+                long seq = nextSeq++;
+                published.incrementAndGet();
+                int r = ThreadLocalRandom.current().nextInt(1000);
+                if (r < DROP_PERCENT * 10) return; // 确认丢失
+                if (r < (DROP_PERCENT + NACK_PERCENT) * 10) {
+                    broker.execute(() -> confirm(nack, seq, false));
+                } else if (r < (DROP_PERCENT + NACK_PERCENT) * 10 + CLOSE_PERMILLE) {
+                    open = false;
+                    ShutdownSignalException cause = new ShutdownSignalException(false, false, null, proxy);
+                    broker.execute(() -> {
+                        for (ShutdownListener l : shutdownListeners) l.shutdownCompleted(cause);
+                    });
+                } else {
+                    broker.schedule(() -> confirm(ack, seq, seq % 5 == 0), 5, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                busy.set(false);
+            }
+        }
+
+        private static void confirm(ConfirmCallback callback, long seq, boolean multiple) {
+            try {
+                callback.handle(seq, multiple);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int channels = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        ConfirmPublisher publisher = new ConfirmPublisher(fakeConnection(), "chat", channels, 5, 1000);
+        List<CompletableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+        ExecutorService senders = Executors.newFixedThreadPool(threads);
+        long begin = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            senders.execute(() -> futures.add(publisher.publish("chat.public", null, new byte[16])));
+        }
+        senders.shutdown();
+        senders.awaitTermination(1, TimeUnit.MINUTES);
+
+        int ok = 0, failed = 0, hanging = 0;
+        for (CompletableFuture<Void> f : futures) {
+            try {
+                f.get(60, TimeUnit.SECONDS);
+                ok++;
+            } catch (ExecutionException e) {
+                failed++;
+            } catch (TimeoutException e) {
+                hanging++;
+            }
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("消息 %d 条：确认 %d，失败 %d，悬空 %d；实际发布 %d 次（含重发），耗时 %.1f 秒%n",
+                futures.size(), ok, failed, hanging, published.get(), seconds);
+        System.out.println("channel 并发使用 " + concurrentUse.get() + " 次，未确认 " + publisher.unconfirmed() + " 条");
+        publisher.close(1000);
+        boolean pass = hanging == 0 && concurrentUse.get() == 0 && futures.size() == messages;
+        System.out.println(pass ? "通过" : "失败");
+        System.exit(pass ? 0 : 1);
+    }
+
+    private static Connection fakeConnection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "createChannel":
+                            return fakeChannel();
+                        case "isOpen":
+                            return true;
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Channel fakeChannel() {
+        FakeChannel state = new FakeChannel();
+        state.proxy = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "basicPublish":
+                            state.publish();
+                            return null;
+                        case "getNextPublishSeqNo":
+                            return state.nextSeq;
+                        case "addConfirmListener":
+                            if (args.length == 2) {
+                                state.ack = (ConfirmCallback) args[0];
+                                state.nack = (ConfirmCallback) args[1];
+                            }
+                            return null;
+                        case "addShutdownListener":
+                            state.shutdownListeners.add((ShutdownListener) args[0]);
+                            return null;
+                        case "isOpen":
+                            return state.open;
+                        case "close":
+                            state.open = false;
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "FakeChannel@" + Integer.toHexString(System.identityHashCode(proxy));
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+        return state.proxy;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == long.class) return 0L;
+        if (type == int.class) return 0;
+        return null;
+    }
+}
@@ -1,18 +1,77 @@
 package com.chat.server.mq;
 
 import com.rabbitmq.client.*;
+import org.json.JSONObject;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MQManager {
+    /** 服务端盖章的消息头：消息体的 HMAC-SHA256，客户端拿不到密钥，无法伪造 */
+    public static final String STAMP_HEADER = "x-chat-stamp";
+
     private Connection connection;
     private Channel channel;
     private String exchangeName;
 
+    // 消费者回调在这个线程池里执行，不同 channel 上的投递可以并行处理
+    private final ExecutorService consumerExecutor;
+    private final long drainTimeoutMs;
+    private final AMQP.BasicProperties outgoing; // 发送 JSONObject 时使用的编码（contentType）
+    private final ConfirmPublisher publisher;
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger(); // 已投递、尚未 ack 的消息数
+    private final Object drainLock = new Object();
+    private final SecretKeySpec stampKey;
+
+    /** 一条待确认的消息：处理完（回复已发出）后调用 ack()，无法处理时调用 reject() */
+    public interface Delivery {
+        /** 消息文本（JSON）；二进制编码的消息在第一次调用时才转成文本 */
+        String body();
+
+        /** 解析好的消息；二进制编码的消息直接解码成 JSONObject，不经过文本。与 body() 共用同一份解码结果 */
+        JSONObject json();
+
+        /** 请求方的回复地址（direct reply-to），旧客户端为 null */
+        String replyTo();
+
+        /** 是否由服务端经 sendStamped 发出（消息头里的章与消息体相符） */
+        boolean stamped();
+
+        String correlationId();
+
+        void ack();
+
+        void reject();
+    }
+
+    private static class Worker {
+        final Channel channel;
+        final String queueName;
+        volatile String consumerTag;
+
+        Worker(Channel channel, String queueName) {
+            this.channel = channel;
+            this.queueName = queueName;
+        }
+    }
+
     public MQManager() throws Exception {
         InputStream input = MQManager.class.getClassLoader().getResourceAsStream("application.properties");
         if (input == null) {
@@ -26,36 +85,307 @@ public class MQManager {
         factory.setPort(Integer.parseInt(prop.getProperty("mq.port")));
         factory.setUsername(prop.getProperty("mq.username"));
         factory.setPassword(prop.getProperty("mq.password"));
-        connection = factory.newConnection();
+        int consumerThreads = Integer.parseInt(prop.getProperty("mq.consumerThreads",
+                String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+        drainTimeoutMs = Long.parseLong(prop.getProperty("mq.drainTimeoutMs", "10000"));
+        // 默认仍发 JSON，所有客户端都能解码二进制后再改为 binary
+        boolean binary = "binary".equalsIgnoreCase(prop.getProperty("mq.codec", "json"));
+        outgoing = new AMQP.BasicProperties.Builder()
+                .contentType(binary ? MessageCodec.BINARY : MessageCodec.JSON).build();
+        AtomicInteger seq = new AtomicInteger();
+        consumerExecutor = Executors.newFixedThreadPool(consumerThreads, r -> new Thread(r, "mq-consumer-" + seq.incrementAndGet()));
+        connection = factory.newConnection(consumerExecutor);
         channel = connection.createChannel();
 
+        // 多实例部署时各实例须配置相同的 mq.stampSecret，否则彼此盖的章互不承认
+        String secret = prop.getProperty("mq.stampSecret");
+        byte[] key = new byte[32];
+        if (secret == null || secret.isEmpty()) new SecureRandom().nextBytes(key);
+        else key = secret.getBytes(StandardCharsets.UTF_8);
+        stampKey = new SecretKeySpec(key, "HmacSHA256");
+
         exchangeName = prop.getProperty("mq.exchange");
         channel.exchangeDeclare(exchangeName, BuiltinExchangeType.TOPIC, true);
+        publisher = new ConfirmPublisher(connection, exchangeName,
+                Integer.parseInt(prop.getProperty("mq.publish.channels", "4")),
+                Integer.parseInt(prop.getProperty("mq.publish.maxRetries", "3")),
+                Long.parseLong(prop.getProperty("mq.publish.confirmTimeoutMs", "5000")));
         System.out.println("已连接到 RabbitMQ：" + exchangeName);
     }
 
-    public void sendMessage(String routingKey, String message) throws IOException {
-        channel.basicPublish(exchangeName, routingKey, null, message.getBytes(StandardCharsets.UTF_8));
-        System.out.println("已发送消息到 [" + routingKey + "]：" + message);
+    // 经发送通道池发出，broker 确认后 future 完成；未确认的消息由 ConfirmPublisher 重发
+    public CompletableFuture<Void> sendMessage(String routingKey, String message) {
+        System.out.println("发送消息到 [" + routingKey + "]：" + message);
+        return publisher.publish(routingKey, null, message.getBytes(StandardCharsets.UTF_8));
     }
 
+    /** 按 mq.codec 编码后发送 */
+    public CompletableFuture<Void> sendMessage(String routingKey, JSONObject message) {
+        byte[] body = MessageCodec.BINARY.equals(outgoing.getContentType())
+                ? MessageCodec.encode(message) : message.toString().getBytes(StandardCharsets.UTF_8);
+        System.out.println("发送消息到 [" + routingKey + "]：" + body.length + " 字节");
+        return publisher.publish(routingKey, outgoing, body);
+    }
+
+    /**
+     * 同 sendMessage(routingKey, JSONObject)，另在消息头里盖章（消息体的 HMAC）。
+     * 用于服务端写入聊天记录后转发的消息：消费方凭章而不是消息体里的字段确认它来自服务端。
+     */
+    public CompletableFuture<Void> sendStamped(String routingKey, JSONObject message) {
+        byte[] body = MessageCodec.BINARY.equals(outgoing.getContentType())
+                ? MessageCodec.encode(message) : message.toString().getBytes(StandardCharsets.UTF_8);
+        AMQP.BasicProperties props = outgoing.builder()
+                .headers(Collections.singletonMap(STAMP_HEADER, stamp(body)))
+                .build();
+        System.out.println("发送消息到 [" + routingKey + "]：" + body.length + " 字节（已盖章）");
+        return publisher.publish(routingKey, props, body);
+    }
+
+    private String stamp(byte[] body) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(stampKey);
+            byte[] d = mac.doFinal(body);
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean verifyStamp(AMQP.BasicProperties props, byte[] body) {
+        if (props == null || props.getHeaders() == null) return false;
+        Object v = props.getHeaders().get(STAMP_HEADER);
+        if (v == null) return false;
+        byte[] expected = stamp(body).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, v.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** 按请求的 replyTo / correlationId 回复（RPC），走默认 exchange，不经过 topic 路由 */
+    public CompletableFuture<Void> reply(Delivery request, JSONObject message) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .contentType(outgoing.getContentType())
+                .correlationId(request.correlationId())
+                .build();
+        byte[] body = MessageCodec.BINARY.equals(outgoing.getContentType())
+                ? MessageCodec.encode(message) : message.toString().getBytes(StandardCharsets.UTF_8);
+        System.out.println("回复 [" + request.replyTo() + "]：" + body.length + " 字节");
+        return publisher.publish("", request.replyTo(), props, body);
+    }
+
+    /** 按 contentType 取出消息文本，旧客户端不带 contentType，按 JSON 处理 */
+    private static String text(com.rabbitmq.client.Delivery msg) {
+        AMQP.BasicProperties props = msg.getProperties();
+        return MessageCodec.toText(props == null ? null : props.getContentType(), msg.getBody());
+    }
+
+    /** 按 contentType 直接得到 JSONObject，二进制消息不再转成文本再解析 */
+    private static JSONObject json(com.rabbitmq.client.Delivery msg) {
+        AMQP.BasicProperties props = msg.getProperties();
+        return MessageCodec.toJson(props == null ? null : props.getContentType(), msg.getBody());
+    }
+
+    /**
+     * 停止接收新消息，等待已投递的消息处理完并 ack（最多 drainTimeoutMs），
+     * 再等已发出的回复得到确认，最后关闭连接。
+     * 没来得及 ack 的消息由 RabbitMQ 在连接断开后重新投递。
+     */
     public void close() throws IOException, TimeoutException {
+        for (Worker w : workers) {
+            try {
+                if (w.consumerTag != null) w.channel.basicCancel(w.consumerTag);
+            } catch (IOException e) {
+                System.err.println("取消消费者失败：" + w.queueName + "，" + e.getMessage());
+            }
+        }
+        long deadline = System.currentTimeMillis() + drainTimeoutMs;
+        synchronized (drainLock) {
+            while (inFlight.get() > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    System.err.println("等待消息处理超时，仍有 " + inFlight.get() + " 条未确认，将由 RabbitMQ 重新投递");
+                    break;
+                }
+                try {
+                    drainLock.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        publisher.close(Math.max(0, deadline - System.currentTimeMillis()));
+        for (Worker w : workers) {
+            if (w.channel.isOpen()) w.channel.close();
+        }
         channel.close();
         connection.close();
+        consumerExecutor.shutdown();
     }
 
-    // 监听队列
+    // 监听队列：处理完回调后确认，回调抛异常的消息被丢弃（不重新入队，避免毒消息循环）
     public void consumeQueue(String queueName, java.util.function.Consumer<String> callback) throws IOException {
+        consumeQueue(queueName, 1, 1, delivery -> {
+            callback.accept(delivery.body());
+            delivery.ack();
+        });
+    }
+
+    /** 同 consumeQueue(queueName, callback)，回调直接拿到解析好的 JSONObject */
+    public void consumeQueueJson(String queueName, java.util.function.Consumer<JSONObject> callback) throws IOException {
+        consumeQueue(queueName, 1, 1, delivery -> {
+            callback.accept(delivery.json());
+            delivery.ack();
+        });
+    }
+
+    /**
+     * 用 workers 个消费者并行消费同一个队列：每个消费者独占一个 channel，
+     * 最多同时持有 prefetch 条未确认的消息，由 handler 在处理完成后手动 ack。
+     */
+    public void consumeQueue(String queueName, int workers, int prefetch,
+                             java.util.function.Consumer<Delivery> handler) throws IOException {
+        synchronized (this) {
+            channel.queueDeclare(queueName, true, false, false, null);
+            channel.queueBind(queueName, exchangeName, queueName);
+        }
+        for (int i = 0; i < workers; i++) {
+            Channel ch = connection.createChannel();
+            ch.basicQos(prefetch);
+            Worker w = new Worker(ch, queueName);
+            this.workers.add(w);
+            w.consumerTag = ch.basicConsume(queueName, false, (tag, msg) -> {
+                inFlight.incrementAndGet();
+                PendingDelivery d = new PendingDelivery(ch, msg.getEnvelope().getDeliveryTag(), msg.getProperties(), msg.getBody());
+                try {
+                    handler.accept(d);
+                } catch (Exception e) {
+                    System.err.println("消息处理异常：" + e.getMessage());
+                    e.printStackTrace();
+                    d.reject();
+                }
+            }, tag -> {});
+        }
+        System.out.println("队列 [" + queueName + "] 已启动 " + workers + " 个消费者，prefetch=" + prefetch);
+    }
+
+    /** 声明持久队列并额外绑定一个 routingKey（可带通配符），之后再用 consumeQueue 消费 */
+    public synchronized void bindQueue(String queueName, String bindingKey) throws IOException {
         channel.queueDeclare(queueName, true, false, false, null);
-        channel.queueBind(queueName, exchangeName, queueName);
-        channel.basicConsume(queueName, true, (tag, msg) -> {
+        channel.queueBind(queueName, exchangeName, bindingKey);
+    }
+
+    /**
+     * 广播订阅：每个服务端实例各自声明一个服务端命名的临时队列绑定到 bindingKey，
+     * 多实例部署时每个实例都能收到全部消息。适合心跳这类丢了也无妨的消息，自动 ack。
+     */
+    public void subscribeBroadcast(String bindingKey, java.util.function.Consumer<String> callback) throws IOException {
+        Channel ch = connection.createChannel();
+        String q = ch.queueDeclare().getQueue();
+        ch.queueBind(q, exchangeName, bindingKey);
+        ch.basicConsume(q, true, (tag, msg) -> {
+            try {
+                callback.accept(text(msg));
+            } catch (Exception e) {
+                System.err.println("消息处理异常：" + e.getMessage());
+            }
+        }, tag -> {});
+        System.out.println("已订阅广播 [" + bindingKey + "]，队列 " + q);
+    }
+
+    /** 同 subscribeBroadcast，回调直接拿到解析好的 JSONObject */
+    public void subscribeBroadcastJson(String bindingKey, java.util.function.Consumer<JSONObject> callback) throws IOException {
+        Channel ch = connection.createChannel();
+        String q = ch.queueDeclare().getQueue();
+        ch.queueBind(q, exchangeName, bindingKey);
+        ch.basicConsume(q, true, (tag, msg) -> {
             try {
-                String message = new String(msg.getBody(), StandardCharsets.UTF_8);
-                callback.accept(message);
+                callback.accept(json(msg));
             } catch (Exception e) {
                 System.err.println("消息处理异常：" + e.getMessage());
-                e.printStackTrace();
             }
         }, tag -> {});
+        System.out.println("已订阅广播 [" + bindingKey + "]，队列 " + q);
+    }
+
+    private class PendingDelivery implements Delivery {
+        private final Channel ch;
+        private final long deliveryTag;
+        private final AMQP.BasicProperties props;
+        private final byte[] raw;
+        private String body;
+        private JSONObject json;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        PendingDelivery(Channel ch, long deliveryTag, AMQP.BasicProperties props, byte[] raw) {
+            this.ch = ch;
+            this.deliveryTag = deliveryTag;
+            this.props = props;
+            this.raw = raw;
+        }
+
+        private String contentType() {
+            return props == null ? null : props.getContentType();
+        }
+
+        @Override
+        public String body() {
+            if (body == null) {
+                // 二进制消息已解码过就直接转文本，否则按 contentType 取文本（JSON 消息不必解析）
+                body = json != null && MessageCodec.BINARY.equals(contentType())
+                        ? json.toString() : MessageCodec.toText(contentType(), raw);
+            }
+            return body;
+        }
+
+        @Override
+        public JSONObject json() {
+            if (json == null) json = body != null ? new JSONObject(body) : MessageCodec.toJson(contentType(), raw);
+            return json;
+        }
+
+        @Override
+        public String replyTo() {
+            return props == null ? null : props.getReplyTo();
+        }
+
+        @Override
+        public boolean stamped() {
+            return verifyStamp(props, raw);
+        }
+
+        @Override
+        public String correlationId() {
+            return props == null ? null : props.getCorrelationId();
+        }
+
+        @Override
+        public void ack() {
+            settle(true);
+        }
+
+        @Override
+        public void reject() {
+            settle(false);
+        }
+
+        private void settle(boolean ack) {
+            if (!settled.compareAndSet(false, true)) return;
+            try {
+                synchronized (ch) { // ack 可能来自不同的处理线程
+                    if (ack) ch.basicAck(deliveryTag, false);
+                    else ch.basicNack(deliveryTag, false, false);
+                }
+            } catch (IOException e) {
+                System.err.println("消息确认失败：" + e.getMessage());
+            } finally {
+                if (inFlight.decrementAndGet() == 0) {
+                    synchronized (drainLock) {
+                        drainLock.notifyAll();
+                    }
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,300 @@
+package com.chat.server.mq;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 聊天消息的二进制编码，与 JSON 文本并存：发送方在 AMQP contentType 里注明格式，
+ * 接收方据此解码，没有 contentType 的消息（旧客户端）按 JSON 处理。
+ *
+ * 格式（版本 1）：
+ *   byte 版本 | 字段 ...
+ *   字段 = varint(标签 << 3 | 值类型) [标签为 0 时跟一个字段名字符串] 值
+ * 常用字段名用固定标签代替；整数用 zigzag varint；字符串为 varint 长度 + UTF-8；
+ * 嵌套的对象/数组（如在线名单）仍以 JSON 文本存放。
+ * 解码时用户名一类的短字符串经过驻留表，同一个名字反复出现不会每次都新建 String。
+ *
+ * 客户端与服务端各有一份本文件（com.chat.client.mq / com.chat.server.mq），除 package 行外必须逐字相同，
+ * 修改时两边一起改；字段标签表尤其不能只改一边，否则两端会把同一个标签解成不同的字段名。
+ */
+public final class MessageCodec {
+    public static final String JSON = "application/json";
+    public static final String BINARY = "application/x-chat-v1";
+
+    private static final int VERSION = 1;
+
+    private static final int T_LONG = 0;
+    private static final int T_STRING = 1;
+    private static final int T_FALSE = 2;
+    private static final int T_TRUE = 3;
+    private static final int T_DOUBLE = 4;
+    private static final int T_JSON = 5;
+
+    // 标签 = 下标，0 保留给未登记的字段名；只能在末尾追加，不能改动已有顺序
+    private static final String[] FIELDS = {null,
+            "type", "from", "to", "content", "username", "password", "status", "message",
+            "filename", "url", "timestamp", "room", "offset", "kind", "action", "since", "limit"};
+    // 这些字段的值多为用户名/群名，解码时驻留
+    private static final boolean[] INTERNED = new boolean[FIELDS.length];
+
+    static {
+        for (String f : new String[]{"type", "from", "to", "username", "room", "status", "kind", "action"}) {
+            INTERNED[tagOf(f)] = true;
+        }
+    }
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[512]);
+    private static final Interner NAMES = new Interner(1024);
+
+    private MessageCodec() {
+    }
+
+    /** 按 contentType 把消息体解成 JSON 文本，交给原有的字符串回调 */
+    public static String toText(String contentType, byte[] body) {
+        if (BINARY.equals(contentType)) return decode(body).toString();
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /** 按 contentType 直接得到 JSONObject：二进制消息解码一次即可，不再转成文本后重新解析 */
+    public static JSONObject toJson(String contentType, byte[] body) {
+        if (BINARY.equals(contentType)) return decode(body);
+        return new JSONObject(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static int tagOf(String field) {
+        for (int i = 1; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(field)) return i;
+        }
+        return 0;
+    }
+
+    public static byte[] encode(JSONObject msg) {
+        Writer w = new Writer(BUFFER.get());
+        w.buf[w.pos++] = VERSION;
+        for (String key : msg.keySet()) {
+            Object v = msg.get(key);
+            if (v == JSONObject.NULL) continue;
+            int tag = tagOf(key);
+            int type;
+            if (v instanceof String) type = T_STRING;
+            else if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) type = T_LONG;
+            else if (v instanceof Boolean) type = (Boolean) v ? T_TRUE : T_FALSE;
+            else if (v instanceof Number) type = T_DOUBLE;
+            else type = T_JSON;
+            w.varint((long) tag << 3 | type);
+            if (tag == 0) w.string(key);
+            switch (type) {
+                case T_STRING:
+                    w.string((String) v);
+                    break;
+                case T_LONG:
+                    long n = ((Number) v).longValue();
+                    w.varint(n << 1 ^ n >> 63);
+                    break;
+                case T_DOUBLE:
+                    w.fixed64(Double.doubleToLongBits(((Number) v).doubleValue()));
+                    break;
+                case T_JSON:
+                    w.string(v.toString());
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (w.buf.length <= 64 * 1024) BUFFER.set(w.buf); // 过大的临时缓冲不留在线程上
+        return Arrays.copyOf(w.buf, w.pos);
+    }
+
+    public static JSONObject decode(byte[] data) {
+        if (data.length == 0 || data[0] != VERSION) {
+            throw new IllegalArgumentException("不支持的消息编码版本：" + (data.length == 0 ? "空" : data[0]));
+        }
+        JSONObject msg = new JSONObject();
+        Reader r = new Reader(data, 1);
+        while (r.pos < data.length) {
+            long header = r.varint();
+            int tag = (int) (header >>> 3);
+            int type = (int) (header & 7);
+            String key;
+            if (tag == 0) key = r.string(false);
+            else if (tag < FIELDS.length) key = FIELDS[tag];
+            else throw new IllegalArgumentException("未知字段标签：" + tag);
+            switch (type) {
+                case T_STRING:
+                    msg.put(key, r.string(tag > 0 && INTERNED[tag]));
+                    break;
+                case T_LONG:
+                    long z = r.varint();
+                    msg.put(key, z >>> 1 ^ -(z & 1));
+                    break;
+                case T_FALSE:
+                case T_TRUE:
+                    msg.put(key, type == T_TRUE);
+                    break;
+                case T_DOUBLE:
+                    msg.put(key, Double.longBitsToDouble(r.fixed64()));
+                    break;
+                case T_JSON:
+                    String json = r.string(false);
+                    msg.put(key, json.startsWith("[") ? new JSONArray(json) : new JSONObject(json));
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知值类型：" + type);
+            }
+        }
+        return msg;
+    }
+
+    private static final class Writer {
+        byte[] buf;
+        int pos;
+
+        Writer(byte[] buf) {
+            this.buf = buf;
+        }
+
+        void ensure(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) (v & 0x7F | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void fixed64(long v) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) buf[pos++] = (byte) (v >>> i);
+        }
+
+        /** 直接把 UTF-8 写进缓冲区，不经过 getBytes 的中间数组 */
+        void string(String s) {
+            int len = s.length();
+            ensure(5 + len * 3);
+            int lenPos = pos;
+            pos += utf8Length(s) < 128 ? 1 : 5; // 长度先占位
+            int start = pos;
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | c >> 6);
+                    buf[pos++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | cp >> 18);
+                    buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    buf[pos++] = (byte) (0x80 | cp & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    buf[pos++] = '?'; // 孤立的代理字符写成 '?'，与 String.getBytes(UTF_8) 一致
+                } else {
+                    buf[pos++] = (byte) (0xE0 | c >> 12);
+                    buf[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buf[pos++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            int n = pos - start;
+            if (start - lenPos == 1) {
+                buf[lenPos] = (byte) n;
+            } else {
+                // 5 字节的定长 varint，解码端按普通 varint 读取
+                for (int i = 0; i < 4; i++) buf[lenPos + i] = (byte) (n >>> 7 * i & 0x7F | 0x80);
+                buf[lenPos + 4] = (byte) (n >>> 28);
+            }
+        }
+
+        private static int utf8Length(String s) {
+            int n = s.length();
+            if (n >= 128) return n; // 只关心是否小于 128
+            int bytes = 0;
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            }
+            return bytes;
+        }
+    }
+
+    private static final class Reader {
+        final byte[] buf;
+        int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        long varint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IllegalArgumentException("varint 过长");
+        }
+
+        long fixed64() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) v = v << 8 | buf[pos++] & 0xFF;
+            return v;
+        }
+
+        String string(boolean intern) {
+            int len = (int) varint();
+            if (len < 0 || pos + len > buf.length) throw new IllegalArgumentException("字符串长度越界：" + len);
+            String s = intern ? NAMES.get(buf, pos, len) : new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+
+    /** 按字节内容查找已解码过的短字符串，命中时不分配新对象；冲突时直接覆盖槽位 */
+    private static final class Interner {
+        private static final int MAX_LEN = 64;
+
+        private static final class Entry {
+            final byte[] bytes;
+            final String value;
+
+            Entry(byte[] bytes, String value) {
+                this.bytes = bytes;
+                this.value = value;
+            }
+        }
+
+        private final Entry[] slots;
+
+        Interner(int size) {
+            slots = new Entry[Integer.highestOneBit(size)];
+        }
+
+        String get(byte[] buf, int off, int len) {
+            if (len > MAX_LEN) return new String(buf, off, len, StandardCharsets.UTF_8);
+            int h = 0x811C9DC5;
+            for (int i = off; i < off + len; i++) h = (h ^ buf[i]) * 0x01000193;
+            int slot = h & (slots.length - 1);
+            Entry e = slots[slot];
+            if (e != null && e.bytes.length == len && rangeEquals(e.bytes, buf, off, len)) return e.value;
+            String s = new String(buf, off, len, StandardCharsets.UTF_8);
+            slots[slot] = new Entry(Arrays.copyOfRange(buf, off, off + len), s);
+            return s;
+        }
+
+        private static boolean rangeEquals(byte[] a, byte[] b, int off, int len) {
+            for (int i = 0; i < len; i++) {
+                if (a[i] != b[off + i]) return false;
+            }
+            return true;
+        }
+    }
+}
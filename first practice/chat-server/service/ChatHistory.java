@@ -0,0 +1,151 @@
+package com.chat.server.service;
+
+import com.chat.server.util.AppConfig;
+import com.chat.server.util.SegmentedLog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天记录：消息按会话写入 SegmentedLog，内存里为每个会话维护一份按序的偏移索引，
+ * “最近 N 条”和“某偏移之后”都只需二分查找加按偏移直接读取。
+ * 会话 key：公共频道为 public，私聊为 dm:<较小的用户名>:<较大的用户名>，群聊为 group:<群名>。
+ * 索引在启动时扫描日志重建，运行中随追加更新；过期的段由定时任务按段删除，索引同步裁剪。
+ */
+public class ChatHistory {
+    public static final String PUBLIC = "public";
+
+    private final long RETENTION_MS = TimeUnit.DAYS.toMillis(AppConfig.getLong("history.retentionDays", 30));
+    private final int SEGMENT_BYTES = AppConfig.getInt("history.segmentBytes", 64 * 1024 * 1024);
+    private final long FLUSH_MS = AppConfig.getLong("history.flushMs", 1000);
+
+    private final SegmentedLog log;
+    private final ConcurrentHashMap<String, OffsetIndex> index = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> conversationsByUser = new ConcurrentHashMap<>();
+
+    /** 一个会话的偏移列表，只在尾部追加、在头部裁剪 */
+    private static class OffsetIndex {
+        private long[] offsets = new long[16];
+        private int start;
+        private int end;
+
+        synchronized void add(long offset) {
+            if (end == offsets.length) {
+                int live = end - start;
+                long[] grown = live * 2 > offsets.length ? new long[offsets.length * 2] : offsets;
+                System.arraycopy(offsets, start, grown, 0, live);
+                offsets = grown;
+                start = 0;
+                end = live;
+            }
+            offsets[end++] = offset;
+        }
+
+        /** 丢弃小于 from 的偏移 */
+        synchronized void trim(long from) {
+            int i = Arrays.binarySearch(offsets, start, end, from);
+            start = i >= 0 ? i : -i - 1;
+        }
+
+        /** after 之后（不含）的最多 limit 个偏移；after < 0 时取最后 limit 个 */
+        synchronized long[] select(long after, int limit) {
+            int from;
+            if (after < 0) {
+                from = Math.max(start, end - limit);
+            } else {
+                int i = Arrays.binarySearch(offsets, start, end, after);
+                from = i >= 0 ? i + 1 : -i - 1;
+            }
+            int to = Math.min(end, from + limit);
+            return Arrays.copyOfRange(offsets, from, Math.max(from, to));
+        }
+    }
+
+    public ChatHistory() throws IOException {
+        String dir = AppConfig.get("history.dir", "history/");
+        this.log = new SegmentedLog(dir, SEGMENT_BYTES, (offset, ts, key) -> indexOf(key).add(offset));
+        System.out.println("聊天记录已载入：" + index.size() + " 个会话，" + log.segmentCount() + " 个日志段");
+    }
+
+    public void start() {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-history");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(log::flush, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+        timer.scheduleWithFixedDelay(this::compact, 1, 60, TimeUnit.MINUTES);
+    }
+
+    public static String conversationOf(String userA, String userB) {
+        return userA.compareTo(userB) <= 0 ? "dm:" + userA + ":" + userB : "dm:" + userB + ":" + userA;
+    }
+
+    private OffsetIndex indexOf(String conversation) {
+        return index.computeIfAbsent(conversation, k -> {
+            if (k.startsWith("dm:")) {
+                String[] p = k.split(":", 3);
+                if (p.length == 3) {
+                    conversationsByUser.computeIfAbsent(p[1], u -> ConcurrentHashMap.newKeySet()).add(k);
+                    conversationsByUser.computeIfAbsent(p[2], u -> ConcurrentHashMap.newKeySet()).add(k);
+                }
+            }
+            return new OffsetIndex();
+        });
+    }
+
+    /** 索引由日志在写锁内回调更新（见构造函数），多个线程并发追加时各会话的偏移仍保持升序 */
+    public long append(String conversation, String message) throws IOException {
+        return log.append(conversation, System.currentTimeMillis(), message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** 用户默认可见的会话：公共频道 + 与他有关的私聊 */
+    public List<String> conversationsOf(String username) {
+        List<String> conversations = new ArrayList<>();
+        conversations.add(PUBLIC);
+        conversations.addAll(conversationsByUser.getOrDefault(username, Collections.emptySet()));
+        return conversations;
+    }
+
+    /**
+     * 若干会话合并后的记录，按偏移升序。
+     * since < 0 时每个会话取最近 limit 条再合并，否则取 since 之后的；总数不超过 limit。
+     */
+    public List<SegmentedLog.Record> recent(Collection<String> conversations, long since, int limit) {
+        List<Long> offsets = new ArrayList<>();
+        for (String c : conversations) {
+            OffsetIndex idx = index.get(c);
+            if (idx == null) continue;
+            for (long o : idx.select(since, limit)) offsets.add(o);
+        }
+        Collections.sort(offsets);
+        // 取最近的：没有 since 时保留末尾 limit 条，有 since 时保留开头 limit 条，便于客户端接着翻
+        List<Long> picked = since < 0
+                ? offsets.subList(Math.max(0, offsets.size() - limit), offsets.size())
+                : offsets.subList(0, Math.min(limit, offsets.size()));
+        List<SegmentedLog.Record> out = new ArrayList<>(picked.size());
+        for (long o : picked) {
+            SegmentedLog.Record r = log.read(o);
+            if (r != null) out.add(r);
+        }
+        return out;
+    }
+
+    private void compact() {
+        try {
+            if (RETENTION_MS <= 0) return;
+            int before = log.segmentCount();
+            long start = log.deleteBefore(System.currentTimeMillis() - RETENTION_MS);
+            if (log.segmentCount() == before) return;
+            for (OffsetIndex idx : index.values()) idx.trim(start);
+            System.out.println("聊天记录清理：删除 " + (before - log.segmentCount()) + " 个过期日志段");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
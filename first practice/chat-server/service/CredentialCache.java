@@ -0,0 +1,43 @@
+package com.chat.server.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 用户名 → 密码哈希 的 LRU 缓存，只缓存哈希，不缓存明文。
+ * 每次失效都会推进代数；查库前记下代数，写回时代数已变就放弃，
+ * 避免并发的注册/改密码之后又被旧值覆盖。
+ */
+public class CredentialCache {
+    private final LinkedHashMap<String, String> map;
+    private long generation;
+
+    public CredentialCache(int maxEntries) {
+        this.map = new LinkedHashMap<String, String>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized String get(String username) {
+        return map.get(username);
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /** 仅在 generation 之后没有发生过失效时写入 */
+    public synchronized void putIfCurrent(String username, String hash, long generation) {
+        if (this.generation == generation && PasswordHasher.isHashed(hash)) {
+            map.put(username, hash);
+        }
+    }
+
+    public synchronized void invalidate(String username) {
+        map.remove(username);
+        generation++;
+    }
+}
@@ -0,0 +1,99 @@
+package com.chat.server.service;
+
+import com.chat.server.db.DBHelper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 群组成员关系：持久化在 group_members 表，启动时整表载入内存，
+ * 加入/退出先写库再改内存，发消息时的成员检查只查内存。
+ */
+public class GroupService {
+    // 群名会出现在 routingKey 里，不能含 . * #
+    private static final Pattern ROOM_NAME = Pattern.compile("[\\w\\-\\u4e00-\\u9fa5]{1,64}");
+
+    private final ConcurrentHashMap<String, Set<String>> members = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> roomsByUser = new ConcurrentHashMap<>();
+
+    public GroupService() throws SQLException {
+        try (Connection conn = DBHelper.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS group_members ("
+                    + "room VARCHAR(64) NOT NULL, username VARCHAR(64) NOT NULL, PRIMARY KEY (room, username))");
+            try (ResultSet rs = st.executeQuery("SELECT room, username FROM group_members")) {
+                while (rs.next()) add(rs.getString(1), rs.getString(2));
+            }
+        }
+        System.out.println("群组已载入：" + members.size() + " 个群");
+    }
+
+    public static boolean isValidName(String room) {
+        return room != null && ROOM_NAME.matcher(room).matches();
+    }
+
+    /** 群消息在聊天记录里的会话 key */
+    public static String conversationOf(String room) {
+        return "group:" + room;
+    }
+
+    /** 加入群，群不存在时即创建；已是成员也返回 true */
+    public boolean join(String room, String username) throws SQLException {
+        if (isMember(room, username)) return true;
+        try (Connection conn = DBHelper.getConnection();
+             PreparedStatement ps = conn.prepareStatement("INSERT INTO group_members (room, username) VALUES (?, ?)")) {
+            ps.setString(1, room);
+            ps.setString(2, username);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            if (!isDuplicate(e)) throw e; // 另一个实例刚写入
+        }
+        add(room, username);
+        return true;
+    }
+
+    public boolean leave(String room, String username) throws SQLException {
+        try (Connection conn = DBHelper.getConnection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM group_members WHERE room = ? AND username = ?")) {
+            ps.setString(1, room);
+            ps.setString(2, username);
+            ps.executeUpdate();
+        }
+        Set<String> users = members.get(room);
+        boolean removed = users != null && users.remove(username);
+        Set<String> rooms = roomsByUser.get(username);
+        if (rooms != null) rooms.remove(room);
+        return removed;
+    }
+
+    public boolean isMember(String room, String username) {
+        Set<String> users = members.get(room);
+        return users != null && users.contains(username);
+    }
+
+    public List<String> roomsOf(String username) {
+        List<String> rooms = new ArrayList<>(roomsByUser.getOrDefault(username, Collections.emptySet()));
+        Collections.sort(rooms);
+        return rooms;
+    }
+
+    public List<String> membersOf(String room) {
+        List<String> users = new ArrayList<>(members.getOrDefault(room, Collections.emptySet()));
+        Collections.sort(users);
+        return users;
+    }
+
+    private void add(String room, String username) {
+        members.computeIfAbsent(room, k -> ConcurrentHashMap.newKeySet()).add(username);
+        roomsByUser.computeIfAbsent(username, k -> ConcurrentHashMap.newKeySet()).add(room);
+    }
+
+    private static boolean isDuplicate(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+}
@@ -0,0 +1,69 @@
+package com.chat.server.service;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * 密码加盐哈希，存储格式：pbkdf2$<迭代次数>$<salt base64>$<hash base64>
+ * 迭代次数写在哈希里，调高配置后旧哈希仍可校验。
+ */
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+
+    public PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder b64 = Base64.getEncoder();
+        return PREFIX + iterations + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(hash);
+    }
+
+    /** 校验密码；stored 格式不对时返回 false */
+    public boolean verify(String password, String stored) {
+        String[] p = stored.split("\\$");
+        if (p.length != 4 || !isHashed(stored)) return false;
+        try {
+            int iter = Integer.parseInt(p[1]);
+            byte[] salt = Base64.getDecoder().decode(p[2]);
+            byte[] expected = Base64.getDecoder().decode(p[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, iter));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public static boolean isHashed(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    /** 比较旧版明文密码，用常量时间比较避免按字节泄露 */
+    public static boolean plaintextEquals(String password, String stored) {
+        return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("不支持 " + ALGORITHM, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
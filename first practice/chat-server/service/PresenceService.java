@@ -0,0 +1,129 @@
+package com.chat.server.service;
+
+import com.chat.server.mq.MQManager;
+import com.chat.server.util.AppConfig;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线状态：客户端定期发心跳，超过 TTL 没有心跳即视为下线。
+ * - 状态存放在一个 ConcurrentHashMap 里，isOnline 只查本机内存；
+ * - 每个服务端实例都订阅全部心跳，多实例部署时各自持有完整视图；
+ * - 上下线时只把用户名记入待发集合，每 flushMs 合并成一条 presence.delta 广播；
+ *   广播时的状态按当时的表里查，同一用户在一个周期内反复变化只发最后的状态，
+ *   也不会因为心跳与过期清理交错而把在线的人报成下线；
+ * - 完整在线名单由客户端订阅增量广播之后通过 presence.request 主动索取（见 snapshot()），
+ *   不在上线时推送：那时客户端往往还没绑定好自己的队列，推送的名单会因无法路由而丢失。
+ */
+public class PresenceService {
+    private final long TTL_MS = AppConfig.getLong("presence.ttlMs", 30_000);
+    private final long FLUSH_MS = AppConfig.getLong("presence.flushMs", 500);
+
+    private final MQManager mqManager;
+    private final ConcurrentHashMap<String, Long> expiries = new ConcurrentHashMap<>(); // 用户名 → 过期时间
+    private final Set<String> pending = new LinkedHashSet<>(); // 状态可能变化、待广播的用户，受自身锁保护
+
+    public PresenceService(MQManager mqManager) {
+        this.mqManager = mqManager;
+    }
+
+    public void start() {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::tick, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+        System.out.println("在线状态服务已启动，TTL=" + TTL_MS + "ms，广播间隔=" + FLUSH_MS + "ms");
+    }
+
+    public boolean isOnline(String username) {
+        Long expires = expiries.get(username);
+        return expires != null && expires > System.currentTimeMillis();
+    }
+
+    /** 登录成功或收到心跳时调用，刷新过期时间 */
+    public void heartbeat(String username) {
+        Long prev = expiries.put(username, System.currentTimeMillis() + TTL_MS);
+        if (prev == null) changed(username);
+    }
+
+    /** 客户端主动下线 */
+    public void offline(String username) {
+        if (expiries.remove(username) != null) changed(username);
+    }
+
+    /** 只记下谁变了，广播什么状态到 flush 时按表里查 */
+    private void changed(String username) {
+        synchronized (pending) {
+            pending.add(username);
+        }
+    }
+
+    private void tick() {
+        try {
+            expire();
+            flush();
+        } catch (Exception e) {
+            e.printStackTrace(); // 不让异常终止定时任务
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = expiries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (e.getValue() <= now && expiries.remove(e.getKey(), e.getValue())) {
+                changed(e.getKey());
+            }
+        }
+    }
+
+    private void flush() throws Exception {
+        JSONArray online = new JSONArray();
+        JSONArray offline = new JSONArray();
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            for (String username : pending) {
+                if (expiries.containsKey(username)) online.put(username);
+                else offline.put(username);
+            }
+            pending.clear();
+        }
+        JSONObject delta = new JSONObject();
+        delta.put("type", "presence");
+        delta.put("online", online);
+        delta.put("offline", offline);
+        mqManager.sendMessage("presence.delta", delta);
+    }
+
+    /** 完整在线名单，客户端收到后替换本地名单，之后只应用增量 */
+    public JSONObject snapshot() {
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("type", "presence");
+        snapshot.put("snapshot", true);
+        snapshot.put("online", new JSONArray(onlineUsers()));
+        return snapshot;
+    }
+
+    public List<String> onlineUsers() {
+        long now = System.currentTimeMillis();
+        List<String> users = new ArrayList<>();
+        for (Map.Entry<String, Long> e : expiries.entrySet()) {
+            if (e.getValue() > now) users.add(e.getKey());
+        }
+        return users;
+    }
+}
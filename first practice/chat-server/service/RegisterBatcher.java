@@ -0,0 +1,175 @@
+package com.chat.server.service;
+
+import com.chat.server.db.DBHelper;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 注册合并写入：把几毫秒内到达（或攒够 maxRows 条）的注册合成一个事务，
+ * 用一次 JDBC batch 插入、一次提交，注册高峰时不再每条都等一次 MySQL 提交。
+ *
+ * 每一批先查出已存在的用户名直接判为重名，其余走 batch；
+ * 如果 batch 仍因并发注册等原因失败，就回滚后在同一事务里逐条插入（每条一个保存点），
+ * 把失败准确地归到对应的请求上。
+ */
+public class RegisterBatcher {
+
+    public enum Result {CREATED, DUPLICATE, ERROR}
+
+    private static class Pending {
+        final String username;
+        final String passwordHash;
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+
+        Pending(String username, String passwordHash) {
+            this.username = username;
+            this.passwordHash = passwordHash;
+        }
+    }
+
+    private final int maxRows;
+    private final long windowNanos;
+    private final BlockingQueue<Pending> queue;
+
+    public RegisterBatcher(int maxRows, long windowMs, int queueCapacity) {
+        this.maxRows = maxRows;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        Thread t = new Thread(this::loop, "register-batcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** 提交一条注册（密码已哈希）；队列满时 future 以 RejectedExecutionException 失败 */
+    public CompletableFuture<Result> submit(String username, String passwordHash) {
+        Pending p = new Pending(username, passwordHash);
+        if (!queue.offer(p)) {
+            p.future.completeExceptionally(new RejectedExecutionException("注册队列已满"));
+        }
+        return p.future;
+    }
+
+    private void loop() {
+        List<Pending> batch = new ArrayList<>(maxRows);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxRows) {
+                    long left = deadline - System.nanoTime();
+                    Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                for (Pending p : batch) p.future.complete(Result.ERROR);
+                return;
+            } catch (Throwable e) {
+                e.printStackTrace();
+                for (Pending p : batch) p.future.complete(Result.ERROR); // 已完成的不受影响
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        Map<Pending, Result> results = new HashMap<>();
+        try (Connection conn = DBHelper.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<Pending> toInsert = new ArrayList<>();
+                Set<String> taken = existingUsernames(conn, batch);
+                for (Pending p : batch) {
+                    if (!taken.add(p.username)) results.put(p, Result.DUPLICATE); // 库里已有，或同一批里重复
+                    else toInsert.add(p);
+                }
+                if (!toInsert.isEmpty() && !insertBatch(conn, toInsert)) {
+                    conn.rollback();
+                    insertOneByOne(conn, toInsert, results);
+                } else {
+                    for (Pending p : toInsert) results.put(p, Result.CREATED);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println("批量注册失败：" + e.getMessage());
+            for (Pending p : batch) {
+                Result r = results.get(p);
+                results.put(p, r == Result.DUPLICATE ? Result.DUPLICATE : Result.ERROR); // 未提交，CREATED 不成立
+            }
+        }
+        for (Pending p : batch) p.future.complete(results.getOrDefault(p, Result.ERROR));
+        if (batch.size() > 1) System.out.println("批量注册 " + batch.size() + " 条：" + summarize(results));
+    }
+
+    private static Set<String> existingUsernames(Connection conn, List<Pending> batch) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT username FROM users WHERE username IN (");
+        for (int i = 0; i < batch.size(); i++) sql.append(i == 0 ? "?" : ",?");
+        sql.append(')');
+        Set<String> found = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < batch.size(); i++) ps.setString(i + 1, batch.get(i).username);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) found.add(rs.getString(1));
+            }
+        }
+        return found;
+    }
+
+    /** 整批插入；有任一条失败时返回 false，由调用方回滚后逐条重试 */
+    private static boolean insertBatch(Connection conn, List<Pending> rows) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO users (username, password) VALUES (?, ?)")) {
+            for (Pending p : rows) {
+                ps.setString(1, p.username);
+                ps.setString(2, p.passwordHash);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            return true;
+        } catch (BatchUpdateException e) {
+            return false;
+        }
+    }
+
+    private static void insertOneByOne(Connection conn, List<Pending> rows, Map<Pending, Result> results) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO users (username, password) VALUES (?, ?)")) {
+            for (Pending p : rows) {
+                Savepoint sp = conn.setSavepoint();
+                try {
+                    ps.setString(1, p.username);
+                    ps.setString(2, p.passwordHash);
+                    ps.executeUpdate();
+                    results.put(p, Result.CREATED);
+                } catch (SQLException e) {
+                    conn.rollback(sp);
+                    results.put(p, isDuplicate(e) ? Result.DUPLICATE : Result.ERROR);
+                    if (!isDuplicate(e)) System.out.println("注册失败：" + p.username + "，" + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** SQLState 23xxx 为完整性约束冲突（MySQL 重复键为 23000） */
+    private static boolean isDuplicate(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+
+    private static String summarize(Map<Pending, Result> results) {
+        EnumMap<Result, Integer> counts = new EnumMap<>(Result.class);
+        for (Result r : results.values()) counts.merge(r, 1, Integer::sum);
+        return counts.toString();
+    }
+}
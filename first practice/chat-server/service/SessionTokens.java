@@ -0,0 +1,56 @@
+package com.chat.server.service;
+
+import com.chat.server.util.AppConfig;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 登录会话令牌：登录成功时签发一个随机令牌，只通过 direct reply-to 回给发起登录的连接。
+ * 之后代表该用户的请求（如拉取聊天记录）必须带上用户名和令牌，服务端据此确认身份，
+ * 而不是相信请求里自称的用户名。令牌在 session.ttlMs 内没有被使用即失效，每次使用都会续期。
+ */
+public class SessionTokens {
+    private final long TTL_MS = AppConfig.getLong("session.ttlMs", 24L * 60 * 60 * 1000);
+    private static final long PRUNE_INTERVAL_MS = 60_000;
+
+    private static class Session {
+        final String username;
+        volatile long expires;
+
+        Session(String username, long expires) {
+            this.username = username;
+            this.expires = expires;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>(); // 令牌 → 会话
+    private volatile long lastPrune = System.currentTimeMillis();
+
+    public String issue(String username) {
+        long now = System.currentTimeMillis();
+        if (now - lastPrune >= PRUNE_INTERVAL_MS) {
+            lastPrune = now;
+            sessions.values().removeIf(s -> s.expires <= now);
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        String token = sb.toString();
+        sessions.put(token, new Session(username, now + TTL_MS));
+        return token;
+    }
+
+    /** 令牌有效且属于该用户时返回 true，并顺延有效期 */
+    public boolean verify(String username, String token) {
+        if (username == null || token == null) return false;
+        Session s = sessions.get(token);
+        long now = System.currentTimeMillis();
+        if (s == null || s.expires <= now) return false;
+        if (!s.username.equals(username)) return false;
+        s.expires = now + TTL_MS;
+        return true;
+    }
+}
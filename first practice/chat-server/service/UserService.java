@@ -1,52 +1,159 @@
 package com.chat.server.service;
 
 import com.chat.server.db.DBHelper;
+import com.chat.server.util.AppConfig;
+
 import java.sql.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class UserService {
-    private static final ConcurrentHashMap<String, Boolean> onlineUsers = new ConcurrentHashMap<>();
+    private final int HASH_THREADS = AppConfig.getInt("auth.hashThreads", Runtime.getRuntime().availableProcessors());
+    private final int HASH_QUEUE_CAPACITY = AppConfig.getInt("auth.hashQueueCapacity", 256);
 
+    private final PasswordHasher hasher = new PasswordHasher(AppConfig.getInt("auth.pbkdf2.iterations", 100_000));
+    private final CredentialCache credentials = new CredentialCache(AppConfig.getInt("auth.cache.maxEntries", 10_000));
+    private final RegisterBatcher registrar = new RegisterBatcher(
+            AppConfig.getInt("user.register.batchMaxRows", 100),
+            AppConfig.getLong("user.register.batchWindowMs", 5),
+            AppConfig.getInt("user.register.queueCapacity", 4096));
 
-    public boolean register(String username, String password) {
-        String sql = "INSERT INTO users (username, password) VALUES (?, ?)";
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, username);
-            ps.setString(2, password);
-            ps.executeUpdate();
+    // 密码哈希是刻意放慢的 CPU 计算，放在独立的有界线程池里，不占用 MQ 消费线程；队列满时直接拒绝
+    private final ThreadPoolExecutor hashPool;
+
+    private final PresenceService presence;
+
+    public UserService(PresenceService presence) {
+        this.presence = presence;
+        AtomicInteger seq = new AtomicInteger();
+        hashPool = new ThreadPoolExecutor(HASH_THREADS, HASH_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(HASH_QUEUE_CAPACITY), r -> {
+            Thread t = new Thread(r, "password-hash-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /** 在哈希线程池里登录；池满时 future 以 RejectedExecutionException 失败 */
+    public CompletableFuture<Boolean> loginAsync(String username, String password) {
+        return submit(() -> login(username, password));
+    }
+
+    /** 在哈希线程池里算好密码哈希，再交给 RegisterBatcher 与同时到达的注册合并写入 */
+    public CompletableFuture<RegisterBatcher.Result> registerAsync(String username, String password) {
+        return submit(() -> hasher.hash(password))
+                .thenCompose(hash -> registrar.submit(username, hash))
+                .thenApply(result -> {
+                    if (result == RegisterBatcher.Result.CREATED) credentials.invalidate(username);
+                    return result;
+                });
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        try {
+            hashPool.execute(() -> {
+                try {
+                    f.complete(task.call());
+                } catch (Throwable e) {
+                    f.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+
+    public boolean login(String username, String password) {
+        try {
+            if (!checkPassword(username, password)) return false;
+            presence.heartbeat(username);
+            System.out.println(username + " 已登录");
             return true;
         } catch (SQLException e) {
-            System.out.println("注册失败：" + e.getMessage());
+            System.out.println("登录失败：" + e.getMessage());
             return false;
         }
     }
 
-    public boolean login(String username, String password) {
-        String sql = "SELECT * FROM users WHERE username=? AND password=?";
+    public boolean changePassword(String username, String oldPassword, String newPassword) {
+        String sql = "UPDATE users SET password=? WHERE username=?";
+        try {
+            if (!checkPassword(username, oldPassword)) return false;
+            try (Connection conn = DBHelper.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, hasher.hash(newPassword));
+                ps.setString(2, username);
+                ps.executeUpdate();
+            }
+            credentials.invalidate(username);
+            return true;
+        } catch (SQLException e) {
+            System.out.println("修改密码失败：" + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 校验密码：缓存命中时不访问数据库。库里还是旧版明文的账号，
+     * 校验通过后顺手改写为哈希。
+     */
+    private boolean checkPassword(String username, String password) throws SQLException {
+        String stored = credentials.get(username);
+        if (stored != null) {
+            return hasher.verify(password, stored);
+        }
+        long generation = credentials.generation();
+        stored = loadPassword(username);
+        if (stored == null) return false;
+        if (PasswordHasher.isHashed(stored)) {
+            credentials.putIfCurrent(username, stored, generation);
+            return hasher.verify(password, stored);
+        }
+        if (!PasswordHasher.plaintextEquals(password, stored)) return false;
+        String upgraded = hasher.hash(password);
+        if (upgradePassword(username, stored, upgraded)) {
+            credentials.putIfCurrent(username, upgraded, generation);
+        }
+        return true;
+    }
+
+    private String loadPassword(String username) throws SQLException {
+        String sql = "SELECT password FROM users WHERE username=?";
         try (Connection conn = DBHelper.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, username);
-            ps.setString(2, password);
-            ResultSet rs = ps.executeQuery();
-            if(rs.next()){
-                onlineUsers.put(username, true);
-                System.out.println(username + " 已登录");
-                return true;
-            }else{
-                return false;
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
             }
+        }
+    }
+
+    /** 只在库里仍是那条明文时才替换，避免覆盖并发的修改 */
+    private boolean upgradePassword(String username, String plaintext, String hash) {
+        String sql = "UPDATE users SET password=? WHERE username=? AND password=?";
+        try (Connection conn = DBHelper.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, hash);
+            ps.setString(2, username);
+            ps.setString(3, plaintext);
+            return ps.executeUpdate() == 1;
         } catch (SQLException e) {
-            System.out.println("登录失败：" + e.getMessage());
+            System.out.println("密码哈希迁移失败（下次登录重试）：" + e.getMessage());
             return false;
         }
     }
 
-    public static void logout(String username) {
-        onlineUsers.remove(username);
+    public void logout(String username) {
+        presence.offline(username);
     }
 
-    public static  boolean isOnline(String username) {
-        return onlineUsers.containsKey(username);
+    public boolean isOnline(String username) {
+        return presence.isOnline(username);
     }
 }
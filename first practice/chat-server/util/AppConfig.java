@@ -0,0 +1,51 @@
+package com.chat.server.util;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * application.properties 的统一读取入口，进程内只加载一次。
+ * 缺少配置文件或某个键时返回调用方给出的默认值。
+ */
+public class AppConfig {
+    private static final Properties prop = new Properties();
+
+    static {
+        try (InputStream input = AppConfig.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (input != null) {
+                prop.load(input);
+            } else {
+                System.err.println("找不到 application.properties，使用默认配置");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static String get(String key, String def) {
+        String v = prop.getProperty(key);
+        return v == null || v.trim().isEmpty() ? def : v.trim();
+    }
+
+    public static int getInt(String key, int def) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.err.println("配置项 " + key + " 不是整数，使用默认值 " + def);
+            return def;
+        }
+    }
+
+    public static long getLong(String key, long def) {
+        try {
+            return Long.parseLong(get(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.err.println("配置项 " + key + " 不是整数，使用默认值 " + def);
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        return Boolean.parseBoolean(get(key, String.valueOf(def)));
+    }
+}
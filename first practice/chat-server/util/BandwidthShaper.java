@@ -0,0 +1,240 @@
+package com.chat.server.util;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上传带宽整形：每个客户端 IP 一个令牌桶，另有一个全局令牌桶。
+ * - 每从 socket 读到一批字节就扣对应的令牌，余额为负时等待补足（先读后扣，单次最多一个 QUANTUM）；
+ * - 全局带宽紧张时按“剩余字节最少优先”发放令牌，小文件不会排在几 GB 的大文件后面；
+ *   排队超过 maxQueueDelayMs 的会话改为按先来后到优先，避免大文件被一直插队；
+ * - 单次等待最多 1 秒，醒来后刷新连接的活动时间，等令牌再久也不会被空闲检测当作卡死的连接；
+ * - 记录已发放字节、排队次数和排队延迟，定期输出用于调整限速参数。
+ * 两项速率都为 0 时不启用，上传路径不受任何影响。
+ */
+public class BandwidthShaper {
+    private final long GLOBAL_BYTES_PER_SEC = AppConfig.getLong("file.upload.globalBytesPerSec", 0);
+    private final long CLIENT_BYTES_PER_SEC = AppConfig.getLong("file.upload.clientBytesPerSec", 0);
+    private final long MAX_QUEUE_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("file.upload.maxQueueDelayMs", 2_000));
+
+    /** 启用整形时单次从 socket 读取的上限，决定了调度的粒度 */
+    static final int QUANTUM = 64 * 1024;
+    /** 单次等待的上限，须远小于上传的空闲超时（file.upload.readTimeoutMs） */
+    private static final long MAX_WAIT_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final TokenBucket global;
+    private final ConcurrentHashMap<String, ClientBucket> clients = new ConcurrentHashMap<>();
+    private final List<Session> waiting = new ArrayList<>(); // 等待全局令牌的会话，受 this 保护
+    private Session current; // 上一次挑中的会话，受 this 保护
+
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicLong grantedBytes = new AtomicLong();
+    private final AtomicLong queuedGrants = new AtomicLong();
+    private final AtomicLong queueDelayNanos = new AtomicLong();
+    private final AtomicLong maxQueueDelayNanos = new AtomicLong();
+    private long lastStatsAt = System.nanoTime();
+    private long lastStatsBytes;
+
+    public BandwidthShaper() {
+        this.global = GLOBAL_BYTES_PER_SEC > 0 ? new TokenBucket(GLOBAL_BYTES_PER_SEC) : null;
+    }
+
+    public boolean enabled() {
+        return GLOBAL_BYTES_PER_SEC > 0 || CLIENT_BYTES_PER_SEC > 0;
+    }
+
+    /** 令牌桶：容量为一秒的流量，允许透支，透支后按速率恢复 */
+    private static class TokenBucket {
+        final double bytesPerNano;
+        final double capacity;
+        double tokens;
+        long last = System.nanoTime();
+
+        TokenBucket(long bytesPerSec) {
+            this.bytesPerNano = bytesPerSec / 1e9;
+            this.capacity = Math.max(bytesPerSec, QUANTUM);
+            this.tokens = capacity;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - last) * bytesPerNano);
+            last = now;
+        }
+
+        /** 余额恢复为正还需要的纳秒数 */
+        long nanosUntilPositive(long now) {
+            refill(now);
+            return tokens > 0 ? 0 : (long) Math.ceil(-tokens / bytesPerNano) + 1;
+        }
+    }
+
+    private static class ClientBucket {
+        final TokenBucket bucket;
+        int sessions; // 受 clients 的 compute 保护
+
+        ClientBucket(long bytesPerSec) {
+            this.bucket = new TokenBucket(bytesPerSec);
+        }
+    }
+
+    /** 为一个上传连接开一个会话；client 一般是对端 IP */
+    public Session open(String client) {
+        ClientBucket cb = null;
+        if (CLIENT_BYTES_PER_SEC > 0) {
+            cb = clients.compute(client, (k, v) -> {
+                if (v == null) v = new ClientBucket(CLIENT_BYTES_PER_SEC);
+                v.sessions++;
+                return v;
+            });
+        }
+        activeSessions.incrementAndGet();
+        return new Session(client, cb);
+    }
+
+    public class Session implements Closeable {
+        private final String client;
+        private final ClientBucket clientBucket;
+        private volatile long remaining;
+        private long enqueuedAt;
+        private boolean closed;
+        private volatile Runnable keepAlive;
+
+        Session(String client, ClientBucket clientBucket) {
+            this.client = client;
+            this.clientBucket = clientBucket;
+        }
+
+        /** 报告本次上传还要传多少字节，用于全局调度的优先级 */
+        public void expect(long bytes) {
+            this.remaining = bytes;
+        }
+
+        /** 等待令牌期间每隔不超过 1 秒回调一次，用于刷新连接的活动时间 */
+        public void keepAlive(Runnable keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        private void touch() {
+            Runnable r = keepAlive;
+            if (r != null) r.run();
+        }
+
+        /** 已从 socket 读到 n 个字节：扣令牌，必要时阻塞到配额恢复 */
+        public void consume(long n) throws InterruptedIOException {
+            try {
+                if (clientBucket != null) {
+                    long wait;
+                    synchronized (clientBucket) {
+                        clientBucket.bucket.tokens -= n;
+                        wait = clientBucket.bucket.nanosUntilPositive(System.nanoTime());
+                    }
+                    // 客户端限速很低时欠额可能要还几十秒，分段睡眠，每段之后刷新活动时间
+                    while (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(wait, MAX_WAIT_NS));
+                        touch();
+                        synchronized (clientBucket) {
+                            wait = clientBucket.bucket.nanosUntilPositive(System.nanoTime());
+                        }
+                    }
+                }
+                if (global != null) acquireGlobal(this, n);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("上传限速等待被中断");
+            }
+            remaining = Math.max(0, remaining - n);
+            grantedBytes.addAndGet(n);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            activeSessions.decrementAndGet();
+            if (clientBucket != null) {
+                clients.computeIfPresent(client, (k, v) -> --v.sessions == 0 ? null : v);
+            }
+        }
+    }
+
+    private void acquireGlobal(Session s, long n) throws InterruptedException {
+        long start = System.nanoTime();
+        boolean queued = false;
+        synchronized (this) {
+            s.enqueuedAt = start;
+            waiting.add(s);
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    Session picked = pick(now);
+                    if (picked != current) {
+                        // 轮到的会话换了（例如有会话排队超时），叫醒它，不能等到别的会话离开
+                        current = picked;
+                        notifyAll();
+                    }
+                    long wait;
+                    if (picked == s) {
+                        wait = global.nanosUntilPositive(now);
+                        if (wait == 0) {
+                            global.tokens -= n;
+                            break;
+                        }
+                    } else {
+                        // 最迟在自己排队超时、可能变成 oldest 时醒来重新挑选
+                        long untilOverdue = s.enqueuedAt + MAX_QUEUE_DELAY_NS - now;
+                        wait = untilOverdue > 0 ? untilOverdue : MAX_WAIT_NS;
+                    }
+                    queued = true;
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, Math.min(wait, MAX_WAIT_NS)));
+                    s.touch();
+                }
+            } finally {
+                waiting.remove(s);
+                if (current == s) current = null;
+                notifyAll();
+            }
+        }
+        if (queued) {
+            long delay = System.nanoTime() - start;
+            queuedGrants.incrementAndGet();
+            queueDelayNanos.addAndGet(delay);
+            maxQueueDelayNanos.accumulateAndGet(delay, Math::max);
+        }
+    }
+
+    /** 剩余字节最少的优先；有会话排队过久时先服务排得最久的 */
+    private Session pick(long now) {
+        Session best = null, oldest = null;
+        for (Session w : waiting) {
+            if (oldest == null || w.enqueuedAt < oldest.enqueuedAt) oldest = w;
+            if (best == null || w.remaining < best.remaining
+                    || (w.remaining == best.remaining && w.enqueuedAt < best.enqueuedAt)) {
+                best = w;
+            }
+        }
+        if (oldest != null && now - oldest.enqueuedAt > MAX_QUEUE_DELAY_NS) return oldest;
+        return best;
+    }
+
+    /** 自上次调用以来的统计；利用率按全局限速计算，未设全局限速时为 - */
+    public synchronized String stats() {
+        long now = System.nanoTime();
+        long bytes = grantedBytes.get();
+        double seconds = (now - lastStatsAt) / 1e9;
+        double rate = seconds > 0 ? (bytes - lastStatsBytes) / seconds : 0;
+        lastStatsAt = now;
+        lastStatsBytes = bytes;
+        long q = queuedGrants.get();
+        String utilization = GLOBAL_BYTES_PER_SEC > 0 ? Math.round(rate * 100 / GLOBAL_BYTES_PER_SEC) + "%" : "-";
+        return "sessions=" + activeSessions.get() + " clients=" + clients.size() + " waiting=" + waiting.size()
+                + " rate=" + Math.round(rate / 1024) + "KB/s utilization=" + utilization
+                + " queued=" + q + " avgQueueMs=" + (q == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(queueDelayNanos.get() / q))
+                + " maxQueueMs=" + TimeUnit.NANOSECONDS.toMillis(maxQueueDelayNanos.get());
+    }
+}
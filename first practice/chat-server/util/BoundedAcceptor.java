@@ -0,0 +1,131 @@
+package com.chat.server.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 Selector 的有界 accept 引擎：
+ * - 最多 maxConcurrent 个连接同时被 worker 处理；
+ * - 另有 queueCapacity 个已 accept 的连接排队等待 worker（准入队列）；
+ * - 两者都满时取消 OP_ACCEPT 关注，新连接留在内核 backlog 里，形成 accept 端背压，
+ *   直到有连接处理完毕再恢复 accept。
+ * 交给 handler 的 SocketChannel 已切回阻塞模式，handler 返回后由本类负责关闭。
+ */
+public class BoundedAcceptor {
+
+    public interface Handler {
+        void handle(SocketChannel channel) throws Exception;
+    }
+
+    private final String name;
+    private final int port;
+    private final int backlog;
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final int limit;
+    private final Handler handler;
+
+    private final AtomicInteger admitted = new AtomicInteger();   // 正在处理 + 排队中的连接数
+    private final AtomicLong acceptedTotal = new AtomicLong();
+    private final AtomicLong pausedTotal = new AtomicLong();      // accept 被暂停的次数
+
+    private volatile Selector selector;
+
+    public BoundedAcceptor(String name, int port, int backlog, int maxConcurrent, int queueCapacity, Handler handler) {
+        this.name = name;
+        this.port = port;
+        this.backlog = backlog;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.limit = this.maxConcurrent + this.queueCapacity;
+        this.handler = handler;
+    }
+
+    /** 阻塞运行 accept 循环，直到线程被中断或监听 socket 出错 */
+    public void run() throws IOException {
+        AtomicInteger threadSeq = new AtomicInteger();
+        // 准入数由 admitted 控制；队列多留 maxConcurrent 个位置，因为 release() 在 worker 线程
+        // 真正空出来之前就已执行，这段时间里刚准入的连接只能先进队列
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(limit), r -> {
+                    Thread t = new Thread(r, name + "-worker-" + threadSeq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        workers.allowCoreThreadTimeOut(true);
+
+        try (Selector sel = Selector.open(); ServerSocketChannel server = ServerSocketChannel.open()) {
+            selector = sel;
+            server.bind(new InetSocketAddress("0.0.0.0", port), backlog);
+            server.configureBlocking(false);
+            SelectionKey key = server.register(sel, SelectionKey.OP_ACCEPT);
+            System.out.println("[" + name + "] 并发上限 " + maxConcurrent + "，准入队列 " + queueCapacity + "，backlog " + backlog);
+
+            boolean paused = false;
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean full = admitted.get() >= limit;
+                if (full != paused) {
+                    paused = full;
+                    key.interestOps(full ? 0 : SelectionKey.OP_ACCEPT);
+                    if (full) {
+                        pausedTotal.incrementAndGet();
+                        System.out.println("[" + name + "] 连接已满，暂停 accept：" + stats());
+                    }
+                }
+                // 暂停期间靠 release() 的 wakeup 唤醒，超时只是兜底
+                sel.select(paused ? 1000 : 0);
+                sel.selectedKeys().clear();
+
+                while (admitted.get() < limit) {
+                    SocketChannel ch = server.accept();
+                    if (ch == null) break;
+                    admitted.incrementAndGet();
+                    acceptedTotal.incrementAndGet();
+                    try {
+                        ch.configureBlocking(true);
+                        workers.execute(() -> serve(ch));
+                    } catch (IOException | RejectedExecutionException e) {
+                        System.err.println("[" + name + "] 无法处理新连接：" + e);
+                        try { ch.close(); } catch (IOException ignored) {}
+                        release();
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        try {
+            handler.handle(ch);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try { ch.close(); } catch (IOException ignored) {}
+            release();
+        }
+    }
+
+    private void release() {
+        // 只有从“满”回落时才需要唤醒 accept 线程
+        if (admitted.getAndDecrement() >= limit) {
+            Selector sel = selector;
+            if (sel != null) sel.wakeup();
+        }
+    }
+
+    public String stats() {
+        return "admitted=" + admitted.get() + " accepted=" + acceptedTotal.get() + " paused=" + pausedTotal.get();
+    }
+}
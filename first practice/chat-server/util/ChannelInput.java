@@ -0,0 +1,159 @@
+package com.chat.server.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 在阻塞 SocketChannel 上按 DataInputStream 的格式读协议头（readUTF / readLong / readInt），
+ * 文件内容则通过 transferTo 直接从 socket 落到 FileChannel，不经过堆上的 byte[]。
+ *
+ * 读协议头时可能多读进来一部分文件内容，transferTo 会先把这部分缓冲写出去。
+ * 设置了限速会话时，每次从 socket 读到数据都会先扣令牌，transferFrom 也改为按 QUANTUM 小步进行。
+ */
+public class ChannelInput {
+    // 单次 transferFrom 的上限，保证大文件传输期间 lastActivity 也能持续刷新
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer buf;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private BandwidthShaper.Session shaping;
+
+    public ChannelInput(SocketChannel channel) {
+        this(channel, 8192);
+    }
+
+    public ChannelInput(SocketChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buf = ByteBuffer.allocateDirect(bufferSize);
+        this.buf.flip(); // 初始为空
+    }
+
+    public SocketChannel channel() {
+        return channel;
+    }
+
+    public void setShaping(BandwidthShaper.Session shaping) {
+        this.shaping = shaping;
+        if (shaping != null) shaping.keepAlive(() -> lastActivity = System.currentTimeMillis());
+    }
+
+    /** 报告接下来要接收的字节数，限速调度据此决定优先级 */
+    public void expect(long bytes) {
+        if (shaping != null) shaping.expect(bytes);
+    }
+
+    private void received(long n) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        if (shaping != null) {
+            shaping.consume(n);
+            lastActivity = System.currentTimeMillis(); // 等令牌不算空闲
+        }
+    }
+
+    /** 距上一次读到数据的毫秒数，供空闲检测使用 */
+    public long idleMillis() {
+        return System.currentTimeMillis() - lastActivity;
+    }
+
+    /** 确保缓冲里至少有 n 个字节（n 不能超过缓冲容量） */
+    private void require(int n) throws IOException {
+        if (buf.remaining() >= n) return;
+        buf.compact();
+        try {
+            while (buf.position() < n) {
+                int r = channel.read(buf);
+                if (r < 0) throw new EOFException("连接在协议头中途关闭");
+                received(r);
+            }
+        } finally {
+            buf.flip();
+        }
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        return buf.getInt();
+    }
+
+    public long readLong() throws IOException {
+        require(8);
+        return buf.getLong();
+    }
+
+    public void readFully(byte[] dst) throws IOException {
+        readFully(dst, 0, dst.length);
+    }
+
+    public void readFully(byte[] dst, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            require(1);
+            int n = Math.min(buf.remaining(), end - off);
+            buf.get(dst, off, n);
+            off += n;
+        }
+    }
+
+    /** 与 DataOutputStream.writeUTF 对应：2 字节长度 + modified UTF-8 */
+    public String readUTF() throws IOException {
+        require(2);
+        int len = buf.getShort() & 0xFFFF;
+        byte[] raw = new byte[len + 2];
+        raw[0] = (byte) (len >>> 8);
+        raw[1] = (byte) len;
+        readFully(raw, 2, len);
+        return new DataInputStream(new ByteArrayInputStream(raw)).readUTF();
+    }
+
+    /**
+     * 把接下来的 count 字节写入 file 的 position 处：先写出已缓冲的部分，
+     * 剩下的交给 FileChannel.transferFrom 直接从 socket 读取。
+     */
+    public void transferTo(FileChannel file, long position, long count) throws IOException {
+        long done = 0;
+        if (buf.hasRemaining() && count > 0) {
+            int n = (int) Math.min(buf.remaining(), count);
+            ByteBuffer slice = buf.duplicate();
+            slice.limit(slice.position() + n);
+            while (slice.hasRemaining()) {
+                done += file.write(slice, position + done);
+            }
+            buf.position(buf.position() + n);
+        }
+        long step = shaping != null ? BandwidthShaper.QUANTUM : TRANSFER_CHUNK;
+        while (done < count) {
+            long n = file.transferFrom(channel, position + done, Math.min(count - done, step));
+            if (n <= 0) {
+                // 阻塞模式下 transferFrom 返回 0 只可能是对端已关闭
+                throw new EOFException("文件内容未传完，已收到 " + done + "/" + count + " 字节");
+            }
+            done += n;
+            received(n);
+        }
+    }
+
+    /**
+     * 与 transferTo 相同，但数据经过本地直接缓冲，顺带计算 CRC32（分块续传协议用来校验每个块）。
+     */
+    public void copyTo(FileChannel file, long position, long count, CRC32 crc) throws IOException {
+        long done = 0;
+        while (done < count) {
+            require(1);
+            int n = (int) Math.min(buf.remaining(), count - done);
+            ByteBuffer slice = buf.duplicate();
+            slice.limit(slice.position() + n);
+            crc.update(slice.duplicate());
+            while (slice.hasRemaining()) {
+                done += file.write(slice, position + done);
+            }
+            buf.position(buf.position() + n);
+        }
+    }
+}
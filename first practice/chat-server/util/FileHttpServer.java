@@ -0,0 +1,301 @@
+package com.chat.server.util;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件下载服务：GET/HEAD /files/{fileId}
+ * - 文件体用 FileChannel.transferTo 直接从 page cache 发到 socket（Linux 上即 sendfile）；
+ * - 支持单段 Range（206/416）、ETag + If-None-Match（304）、HTTP/1.1 keep-alive；
+ * - 连接由 BoundedAcceptor 的有界 worker 池处理，空闲的 keep-alive 连接到时即关闭；
+ * - 不超过阈值的文件经 HotFileCache 从堆外内存发送，热点附件不必反复读盘。
+ * fileId 对应的内容不会变化，所以 ETag 直接取自 fileId 中的内容哈希。
+ */
+public class FileHttpServer implements Runnable {
+    private final int PORT = AppConfig.getInt("file.http.port", 8080);
+    private final int BACKLOG = AppConfig.getInt("file.http.backlog", 128);
+    private final int MAX_CONCURRENT = AppConfig.getInt("file.http.maxConcurrent", 32);
+    private final int QUEUE_CAPACITY = AppConfig.getInt("file.http.queueCapacity", 128);
+    private final int KEEP_ALIVE_MS = AppConfig.getInt("file.http.keepAliveMs", 5_000);
+    private final int MAX_REQUESTS_PER_CONN = AppConfig.getInt("file.http.maxRequestsPerConnection", 100);
+
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+    private static final long STATS_INTERVAL_SEC = 300;
+
+    private final FileStore store;
+    private final HotFileCache cache;
+
+    public FileHttpServer(FileStore store, HotFileCache cache) {
+        this.store = store;
+        this.cache = cache;
+    }
+
+    @Override
+    public void run() {
+        try {
+            System.out.println("文件下载服务已启动，监听端口：" + PORT);
+            if (cache.enabled()) {
+                ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "file-cache-stats");
+                    t.setDaemon(true);
+                    return t;
+                });
+                reporter.scheduleWithFixedDelay(() -> System.out.println("下载缓存：" + cache.stats()),
+                        STATS_INTERVAL_SEC, STATS_INTERVAL_SEC, TimeUnit.SECONDS);
+            }
+            new BoundedAcceptor("http", PORT, BACKLOG, MAX_CONCURRENT, QUEUE_CAPACITY, this::handleConnection).run();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handleConnection(SocketChannel channel) throws IOException {
+        Socket socket = channel.socket();
+        socket.setSoTimeout(KEEP_ALIVE_MS);
+        socket.setTcpNoDelay(true);
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        try {
+            for (int served = 0; served < MAX_REQUESTS_PER_CONN; served++) {
+                Request req = Request.read(in);
+                if (req == null) return; // 对端关闭
+                boolean keepAlive = req.keepAlive() && served + 1 < MAX_REQUESTS_PER_CONN;
+                if (!serve(channel, req, keepAlive)) return;
+            }
+        } catch (SocketTimeoutException e) {
+            // keep-alive 空闲超时，正常关闭
+        } catch (IOException e) {
+            System.out.println("下载连接中断：" + e.getMessage()); // 客户端取消下载等
+        }
+    }
+
+    /** 处理一个请求，返回连接是否继续保持 */
+    private boolean serve(SocketChannel channel, Request req, boolean keepAlive) throws IOException {
+        if (req.badRequest) {
+            sendEmpty(channel, 400, "Bad Request", false, null);
+            return false;
+        }
+        boolean head = "HEAD".equals(req.method);
+        if (!head && !"GET".equals(req.method)) {
+            sendEmpty(channel, 405, "Method Not Allowed", keepAlive, "Allow: GET, HEAD\r\n");
+            return keepAlive;
+        }
+        if (!req.path.startsWith("/files/")) {
+            sendEmpty(channel, 404, "Not Found", keepAlive, null);
+            return keepAlive;
+        }
+        String fileId = URLDecoder.decode(req.path.substring("/files/".length()), "UTF-8");
+        Path file = store.resolve(fileId);
+        if (file == null) {
+            sendEmpty(channel, 404, "Not Found", keepAlive, null);
+            return keepAlive;
+        }
+
+        FileStore.Entry entry = store.lookup(fileId);
+        String etag = "\"" + (entry != null ? entry.hash : fileId.replace("\"", "")) + "\"";
+        String inm = req.headers.get("if-none-match");
+        if (inm != null && (inm.trim().equals("*") || inm.contains(etag))) {
+            sendEmpty(channel, 304, "Not Modified", keepAlive, "ETag: " + etag + "\r\n");
+            return keepAlive;
+        }
+
+        ByteBuffer cached = head ? cache.peek(fileId) : cache.get(fileId); // HEAD 不触发加载
+        FileChannel fc = null;
+        if (cached == null) {
+            try {
+                fc = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                sendEmpty(channel, 404, "Not Found", keepAlive, null); // 索引里有但文件已被清理
+                return keepAlive;
+            }
+        }
+        try {
+            long size = cached != null ? cached.remaining() : fc.size();
+            long start = 0, end = size - 1;
+            int status = 200;
+            String range = req.headers.get("range");
+            if (range != null && size > 0) {
+                long[] r = parseRange(range, size);
+                if (r == null) {
+                    sendEmpty(channel, 416, "Range Not Satisfiable", keepAlive,
+                            "Content-Range: bytes */" + size + "\r\n");
+                    return keepAlive;
+                }
+                if (r.length == 2) {
+                    start = r[0];
+                    end = r[1];
+                    status = 206;
+                }
+            }
+            long length = size == 0 ? 0 : end - start + 1;
+
+            StringBuilder h = new StringBuilder();
+            h.append("HTTP/1.1 ").append(status).append(status == 206 ? " Partial Content" : " OK").append("\r\n");
+            h.append("Content-Type: ").append(contentType(fileId)).append("\r\n");
+            h.append("Content-Length: ").append(length).append("\r\n");
+            h.append("Accept-Ranges: bytes\r\n");
+            h.append("ETag: ").append(etag).append("\r\n");
+            h.append("Cache-Control: public, max-age=31536000, immutable\r\n");
+            h.append("Content-Disposition: attachment; filename*=UTF-8''")
+                    .append(URLEncoder.encode(displayName(fileId), "UTF-8").replace("+", "%20")).append("\r\n");
+            if (status == 206) {
+                h.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(size).append("\r\n");
+            }
+            h.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+            writeFully(channel, ByteBuffer.wrap(h.toString().getBytes(StandardCharsets.ISO_8859_1)));
+
+            if (!head) {
+                store.touch(fileId);
+                if (cached != null) {
+                    cached.position((int) start);
+                    cached.limit((int) (start + length));
+                    writeFully(channel, cached);
+                } else {
+                    long pos = start, remaining = length;
+                    while (remaining > 0) {
+                        long n = fc.transferTo(pos, Math.min(remaining, TRANSFER_CHUNK), channel);
+                        if (n <= 0) throw new EOFException("文件在发送过程中被截断: " + fileId);
+                        pos += n;
+                        remaining -= n;
+                    }
+                }
+            }
+        } finally {
+            if (fc != null) fc.close();
+        }
+        return keepAlive;
+    }
+
+    /**
+     * 解析单段 Range：bytes=a-b / bytes=a- / bytes=-n。
+     * 返回 {start, end}；多段或无法识别时返回空数组（按整文件响应）；不可满足时返回 null。
+     */
+    static long[] parseRange(String header, long size) {
+        String v = header.trim();
+        if (!v.startsWith("bytes=") || v.indexOf(',') >= 0) return new long[0];
+        String spec = v.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return new long[0];
+        try {
+            String a = spec.substring(0, dash).trim(), b = spec.substring(dash + 1).trim();
+            long start, end;
+            if (a.isEmpty()) {
+                long suffix = Long.parseLong(b);
+                if (suffix <= 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(a);
+                end = b.isEmpty() ? size - 1 : Math.min(Long.parseLong(b), size - 1);
+            }
+            if (start >= size || start > end) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String displayName(String fileId) {
+        int i = fileId.indexOf('_');
+        return i >= 0 ? fileId.substring(i + 1) : fileId;
+    }
+
+    private static String contentType(String fileId) {
+        String t = URLConnection.guessContentTypeFromName(displayName(fileId));
+        return t != null ? t : "application/octet-stream";
+    }
+
+    private static void sendEmpty(SocketChannel channel, int status, String reason, boolean keepAlive, String extra) throws IOException {
+        String h = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                + (extra != null ? extra : "")
+                + "Content-Length: 0\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+        writeFully(channel, ByteBuffer.wrap(h.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+    }
+
+    /** 最小化的 HTTP/1.x 请求头解析，只取下载需要的部分 */
+    static class Request {
+        String method;
+        String path;
+        String version;
+        boolean badRequest;
+        final Map<String, String> headers = new HashMap<>();
+
+        boolean keepAlive() {
+            String conn = headers.getOrDefault("connection", "").toLowerCase();
+            if ("HTTP/1.0".equals(version)) return conn.contains("keep-alive");
+            return !conn.contains("close");
+        }
+
+        /** 读取一个请求头；连接在请求之间被关闭时返回 null */
+        static Request read(InputStream in) throws IOException {
+            String line = readLine(in, true);
+            if (line == null) return null;
+            while (line.isEmpty()) { // 容忍请求之间多余的空行
+                line = readLine(in, true);
+                if (line == null) return null;
+            }
+            Request r = new Request();
+            String[] parts = line.split(" ");
+            if (parts.length != 3) {
+                r.badRequest = true;
+                return r;
+            }
+            r.method = parts[0];
+            String target = parts[1];
+            int q = target.indexOf('?');
+            r.path = q >= 0 ? target.substring(0, q) : target;
+            r.version = parts[2];
+
+            int total = line.length();
+            while (true) {
+                String h = readLine(in, false);
+                if (h == null || h.isEmpty()) break;
+                total += h.length();
+                if (total > MAX_HEADER_BYTES) {
+                    r.badRequest = true;
+                    return r;
+                }
+                int colon = h.indexOf(':');
+                if (colon > 0) {
+                    r.headers.put(h.substring(0, colon).trim().toLowerCase(), h.substring(colon + 1).trim());
+                }
+            }
+            return r;
+        }
+
+        private static String readLine(InputStream in, boolean first) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') break;
+                if (c != '\r') sb.append((char) c);
+                if (sb.length() > MAX_HEADER_BYTES) throw new IOException("请求头过长");
+            }
+            if (c == -1 && sb.length() == 0 && first) return null;
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.chat.server.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * files/ 目录的定期清理，按以下顺序执行，任一项配置为 0 即关闭该项：
+ *   1. 暂存区里长时间无人续传的残留文件；
+ *   2. 超过 maxAgeDays 没有被上传或下载过的内容；
+ *   3. 大于 largeFileBytes 且超过 largeFileMaxAgeDays 未被使用的大文件；
+ *   4. 总占用超过 quotaBytes 的高水位时，按最后下载时间从旧到新淘汰，直到低水位。
+ * 淘汰以内容（blob）为单位，引用同一内容的所有 fileId 一起失效，之后下载返回 404。
+ * 每轮结束后把索引写成快照，增量日志随之清空。
+ */
+public class FileRetention implements Runnable {
+    private final long INTERVAL_SEC = AppConfig.getLong("file.retention.intervalSec", 600);
+    private final long MAX_AGE_MS = TimeUnit.DAYS.toMillis(AppConfig.getLong("file.retention.maxAgeDays", 0));
+    private final long LARGE_FILE_BYTES = AppConfig.getLong("file.retention.largeFileBytes", 0);
+    private final long LARGE_FILE_MAX_AGE_MS = TimeUnit.DAYS.toMillis(AppConfig.getLong("file.retention.largeFileMaxAgeDays", 7));
+    private final long QUOTA_BYTES = AppConfig.getLong("file.quota.bytes", 0);
+    private final int HIGH_WATERMARK = AppConfig.getInt("file.quota.highWatermarkPercent", 90);
+    private final int LOW_WATERMARK = AppConfig.getInt("file.quota.lowWatermarkPercent", 75);
+    private final long STAGING_MAX_AGE_MS = TimeUnit.HOURS.toMillis(AppConfig.getLong("file.retention.stagingMaxAgeHours", 24));
+
+    private final FileStore store;
+
+    public FileRetention(FileStore store) {
+        this.store = store;
+    }
+
+    /** 启动后台定时清理，首轮在启动一分钟后执行 */
+    public void start() {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "file-retention");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this, Math.min(60, INTERVAL_SEC), INTERVAL_SEC, TimeUnit.SECONDS);
+        System.out.println("文件清理已启动，间隔 " + INTERVAL_SEC + " 秒，配额 "
+                + (QUOTA_BYTES > 0 ? QUOTA_BYTES + " 字节" : "不限"));
+    }
+
+    @Override
+    public void run() {
+        try {
+            long now = System.currentTimeMillis();
+            int staged = purgeStaging(now);
+            int expired = 0, largeExpired = 0, lru = 0;
+            long freed = 0;
+
+            List<FileStore.Blob> all = new ArrayList<>(store.blobs());
+            List<FileStore.Blob> alive = new ArrayList<>(all.size());
+            for (FileStore.Blob b : all) {
+                long idle = now - b.lastAccess();
+                if (MAX_AGE_MS > 0 && idle > MAX_AGE_MS) {
+                    freed += store.evict(b.hash);
+                    expired++;
+                } else if (LARGE_FILE_BYTES > 0 && b.size >= LARGE_FILE_BYTES && idle > LARGE_FILE_MAX_AGE_MS) {
+                    freed += store.evict(b.hash);
+                    largeExpired++;
+                } else {
+                    alive.add(b);
+                }
+            }
+
+            if (QUOTA_BYTES > 0 && store.usedBytes() > QUOTA_BYTES * HIGH_WATERMARK / 100) {
+                long target = QUOTA_BYTES * LOW_WATERMARK / 100;
+                alive.sort(Comparator.comparingLong(FileStore.Blob::lastAccess));
+                for (FileStore.Blob b : alive) {
+                    if (store.usedBytes() <= target) break;
+                    freed += store.evict(b.hash);
+                    lru++;
+                }
+            }
+
+            store.writeSnapshot();
+            if (staged + expired + largeExpired + lru > 0) {
+                System.out.println("文件清理：暂存残留 " + staged + "，过期 " + expired + "，大文件过期 " + largeExpired
+                        + "，超配额淘汰 " + lru + "，释放 " + freed + " 字节，当前占用 " + store.usedBytes() + " 字节");
+            }
+        } catch (Exception e) {
+            e.printStackTrace(); // 不让异常终止定时任务
+        }
+    }
+
+    /** 删除修改时间早于阈值的暂存文件；正在上传的文件会不断被写入，不会命中 */
+    private int purgeStaging(long now) throws IOException {
+        if (STAGING_MAX_AGE_MS <= 0) return 0;
+        int removed = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(store.stagingDir())) {
+            for (Path p : ds) {
+                try {
+                    if (now - Files.getLastModifiedTime(p).toMillis() > STAGING_MAX_AGE_MS) {
+                        Files.deleteIfExists(p);
+                        removed++;
+                    }
+                } catch (IOException e) {
+                    System.err.println("清理暂存文件失败：" + p + "，" + e.getMessage());
+                }
+            }
+        }
+        return removed;
+    }
+}
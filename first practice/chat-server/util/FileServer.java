@@ -1,71 +1,426 @@
 package com.chat.server.util;
 
 import java.io.*;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.UUID;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public class FileServer implements Runnable {
-    private final int PORT = 9000;
-    private final String SAVE_DIR = "files/";  // 相对路径
-    private final String HTTP_BASE = "http://127.0.0.1:8080"; // 服务器公网 IP 和端口
+    // hash-first 上传：客户端先报告内容哈希，服务端已有则不必再传字节。
+    // URLEncoder 会把 '@' 编成 %40，所以以 '@' 开头的首字段不可能是旧协议的文件名。
+    static final String CMD_HASH_FIRST = "@HASH1";
+    // hash-first + 压缩协商：客户端附带可用的编码列表，服务端挑一个回复 SEND <编码>
+    static final String CMD_HASH_FIRST_NEGOTIATE = "@HASH2";
+    static final String CODEC_DEFLATE = "deflate";
+    static final String CODEC_IDENTITY = "identity";
+    // 分块续传：带 uploadId、每块 CRC32 和偏移查询，断线后从最后确认的字节继续
+    static final String CMD_CHUNKED = "@CHUNK1";
+    // 并行分段上传：每条连接写一段，全部完成后由 @COMMIT1 提交
+    static final String CMD_RANGE = "@RANGE1";
+    static final String CMD_COMMIT = "@COMMIT1";
+    // 与 @CHUNK1 / @RANGE1 相同，但每个块可以单独 deflate 压缩，续传粒度不变
+    static final String CMD_CHUNKED_DEFLATE = "@CHUNK2";
+    static final String CMD_RANGE_DEFLATE = "@RANGE2";
+
+    private final int PORT = AppConfig.getInt("file.port", 9000);
+    private final String HTTP_BASE = AppConfig.get("file.http.base",
+            "http://127.0.0.1:" + AppConfig.getInt("file.http.port", 8080)); // 服务器公网 IP 和端口
+
+    // 上传引擎：bounded = Selector accept + 有界 worker 池；legacy = 每个连接一个线程（旧行为）
+    private final String MODE = AppConfig.get("file.upload.mode", "bounded");
+    private final int BACKLOG = AppConfig.getInt("file.upload.backlog", 50);
+    private final int MAX_CONCURRENT = AppConfig.getInt("file.upload.maxConcurrent", 16);
+    private final int QUEUE_CAPACITY = AppConfig.getInt("file.upload.queueCapacity", 64);
+    private final int READ_TIMEOUT_MS = AppConfig.getInt("file.upload.readTimeoutMs", 30_000);
+
+    // 落盘后是否 fsync：never / always / threshold（文件不小于 FSYNC_THRESHOLD 字节时才 fsync）
+    private final String FSYNC_POLICY = AppConfig.get("file.upload.fsync", "never");
+    private final long FSYNC_THRESHOLD = AppConfig.getLong("file.upload.fsyncThresholdBytes", 64L * 1024 * 1024);
+
+    // channel 读不受 SO_TIMEOUT 控制，由这里定期关闭长时间没有进展的上传
+    private final Set<ChannelInput> activeUploads = ConcurrentHashMap.newKeySet();
+
+    private final FileStore store;
+    private final ResumableUploads resumable;
+    private final RangedUploads ranged;
+    private final HotFileCache cache;
+    private final BandwidthShaper shaper = new BandwidthShaper();
+
+    public FileServer(FileStore store, HotFileCache cache) {
+        this.store = store;
+        this.cache = cache;
+        this.resumable = new ResumableUploads(store);
+        this.ranged = new RangedUploads(store);
+    }
 
     @Override
     public void run() {
-        new File(SAVE_DIR).mkdirs();
-        try (ServerSocket serverSocket = new ServerSocket(PORT, 50, InetAddress.getByName("0.0.0.0"))) {
+        if ("legacy".equalsIgnoreCase(MODE)) {
+            runLegacy();
+            return;
+        }
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-idle-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        watchdog.scheduleWithFixedDelay(this::closeIdleUploads, 5, 5, TimeUnit.SECONDS);
+        if (shaper.enabled()) {
+            watchdog.scheduleWithFixedDelay(() -> System.out.println("上传限速：" + shaper.stats()), 60, 60, TimeUnit.SECONDS);
+        }
+        try {
+            System.out.println("文件服务器已启动，监听端口：" + PORT);
+            System.out.println("文件访问地址: " + HTTP_BASE + "/files/");
+            new BoundedAcceptor("upload", PORT, BACKLOG, MAX_CONCURRENT, QUEUE_CAPACITY, this::handleChannel).run();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            watchdog.shutdownNow();
+        }
+    }
+
+    private void runLegacy() {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("0.0.0.0", PORT), BACKLOG);
             System.out.println("文件服务器已启动，监听端口：" + PORT);
             System.out.println("文件访问地址: " + HTTP_BASE + "/files/");
 
             while (true) {
-                Socket socket = serverSocket.accept();
-                new Thread(() -> handleClient(socket)).start();
+                SocketChannel channel = server.accept();
+                new Thread(() -> {
+                    try {
+                        handleChannel(channel);
+                    } finally {
+                        try { channel.close(); } catch (IOException ignored) {}
+                    }
+                }).start();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void handleClient(Socket socket) {
-        try (DataInputStream dis = new DataInputStream(socket.getInputStream());
-             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-             PrintWriter writer = new PrintWriter(new OutputStreamWriter(dos, "UTF-8"), true)) {
+    private void closeIdleUploads() {
+        for (ChannelInput in : activeUploads) {
+            if (in.idleMillis() > READ_TIMEOUT_MS) {
+                System.out.println("上传连接空闲超时，关闭：" + in.channel());
+                try { in.channel().close(); } catch (IOException ignored) {}
+            }
+        }
+    }
 
-            // 1. 客户端直接发文件名（已编码），我们不再读命令
-            String encodedName = dis.readUTF(); // 客户端发的是 URLEncoder.encode(name)
-            String originalName = java.net.URLDecoder.decode(encodedName, "UTF-8");
-            long fileSize = dis.readLong();
+    /**
+     * 上传协议：
+     *   旧协议   writeUTF(URL 编码的文件名) + writeLong(大小) + 文件内容
+     *   hash-first  writeUTF("@HASH1") + writeUTF(文件名) + writeLong(大小) + writeUTF(sha256)，
+     *            服务端已有该内容时直接回复 SUCCESS，否则回复 SEND，客户端再发送文件内容
+     *   压缩协商  与 @HASH1 相同，末尾多一个 writeUTF(逗号分隔的可用编码，如 "deflate,identity")，
+     *            服务端回复 SEND deflate 时内容以 writeInt(块长度) + 压缩数据 分块发送，长度 0 结束；
+     *            回复 SEND identity 时按原样发送
+     *   分块续传  writeUTF("@CHUNK1") + writeUTF(uploadId) + writeUTF(文件名) + writeLong(总大小) + writeUTF(sha256 或空串)，
+     *            服务端回复 writeLong(已确认偏移)；之后每块 writeInt(长度) + writeInt(CRC32) + 内容，
+     *            服务端逐块回复 writeLong(新偏移)，校验失败回复 -1 并断开；长度为 0 的块表示结束
+     *   分段上传  writeUTF("@RANGE1") + writeUTF(uploadId) + writeUTF(文件名) + writeLong(总大小)
+     *            + writeLong(段起点) + writeLong(段终点，不含)，之后与 @CHUNK1 相同，结束时回复 OK <偏移>
+     *   块压缩   "@CHUNK2" / "@RANGE2" 与 @CHUNK1 / @RANGE1 相同，但块也可以是
+     *            writeInt(-压缩后长度) + writeInt(原始长度) + writeInt(原始内容的 CRC32) + 压缩数据，
+     *            每块是独立的 deflate 流，偏移与确认仍按原始字节计算；不认识该命令的旧服务端回复 ERROR
+     *   分段提交  writeUTF("@COMMIT1") + writeUTF(uploadId) + writeUTF(文件名) + writeLong(总大小) + writeUTF(sha256 或空串)，
+     *            还有字节没到齐时回复 INCOMPLETE
+     * 其余情况最终回复一行 SUCCESS /files/<fileId> 或 ERROR <原因>。
+     */
+    private void handleChannel(SocketChannel channel) {
+        ChannelInput in = new ChannelInput(channel);
+        activeUploads.add(in);
+        BandwidthShaper.Session shaping = null;
+        if (shaper.enabled()) {
+            shaping = shaper.open(clientOf(channel));
+            in.setShaping(shaping);
+        }
+        try {
+            String head = in.readUTF();
+            String reply;
+            if (CMD_HASH_FIRST.equals(head)) {
+                reply = "SUCCESS /files/" + receiveHashFirst(in, false);
+            } else if (CMD_HASH_FIRST_NEGOTIATE.equals(head)) {
+                reply = "SUCCESS /files/" + receiveHashFirst(in, true);
+            } else if (CMD_CHUNKED.equals(head) || CMD_CHUNKED_DEFLATE.equals(head)) {
+                reply = "SUCCESS /files/" + receiveChunked(in, CMD_CHUNKED_DEFLATE.equals(head));
+            } else if (CMD_RANGE.equals(head) || CMD_RANGE_DEFLATE.equals(head)) {
+                reply = "OK " + receiveRange(in, CMD_RANGE_DEFLATE.equals(head));
+            } else if (CMD_COMMIT.equals(head)) {
+                String fileId = commitRanged(in);
+                reply = fileId == null ? "INCOMPLETE" : "SUCCESS /files/" + fileId;
+            } else if (head.startsWith("@")) {
+                throw new IOException("不支持的上传命令: " + head);
+            } else {
+                String originalName = java.net.URLDecoder.decode(head, "UTF-8");
+                reply = "SUCCESS /files/" + receive(in, originalName, in.readLong());
+            }
+            writeLine(channel, reply);
+            if (reply.startsWith("SUCCESS ")) {
+                cache.warm(reply.substring("SUCCESS /files/".length())); // 回复之后再预热，不拖慢上传方
+            }
+        } catch (Exception e) {
+            try {
+                writeLine(channel, "ERROR " + e.getMessage());
+            } catch (Exception ignored) {}
+            e.printStackTrace();
+        } finally {
+            activeUploads.remove(in);
+            if (shaping != null) shaping.close();
+        }
+    }
+
+    private static String clientOf(SocketChannel channel) {
+        java.net.Socket socket = channel.socket();
+        return socket.getInetAddress() != null ? socket.getInetAddress().getHostAddress() : "unknown";
+    }
 
-            // 2. 生成唯一 ID，保存文件
-            String fileId = UUID.randomUUID().toString() + "_" + originalName;
-            Path savePath = Paths.get(SAVE_DIR, fileId);
+    private String receiveHashFirst(ChannelInput in, boolean negotiate) throws IOException {
+        String originalName = java.net.URLDecoder.decode(in.readUTF(), "UTF-8");
+        long fileSize = in.readLong();
+        String hash = in.readUTF().toLowerCase();
+        String offered = negotiate ? in.readUTF() : CODEC_IDENTITY;
+        if (FileStore.isHash(hash) && store.hasBlob(hash, fileSize)) {
+            String fileId = store.register(hash, fileSize, originalName);
+            System.out.println("上传成功(内容已存在，跳过传输): " + originalName + " → " + HTTP_BASE + "/files/" + fileId);
+            return fileId;
+        }
+        if (!negotiate) {
+            writeLine(in.channel(), "SEND");
+            return receive(in, originalName, fileSize);
+        }
+        boolean deflate = Arrays.asList(offered.split(",")).contains(CODEC_DEFLATE);
+        writeLine(in.channel(), "SEND " + (deflate ? CODEC_DEFLATE : CODEC_IDENTITY));
+        return deflate ? receiveDeflated(in, originalName, fileSize) : receive(in, originalName, fileSize);
+    }
 
-            try (FileOutputStream fos = new FileOutputStream(savePath.toFile())) {
-                byte[] buffer = new byte[8192];
-                int len;
-                long received = 0;
-                while (received < fileSize && (len = dis.read(buffer, 0, Math.min(buffer.length, (int)(fileSize - received)))) != -1) {
-                    fos.write(buffer, 0, len);
-                    received += len;
+    /** 边收边解压：仓库里存的始终是原始内容，去重和下载都不受压缩影响 */
+    private String receiveDeflated(ChannelInput in, String originalName, long fileSize) throws IOException {
+        if (fileSize < 0) throw new IOException("非法的文件大小: " + fileSize);
+        in.expect(fileSize); // 压缩后会更少，按原始大小排优先级足够
+        Path staged = store.newStagingFile();
+        Inflater inflater = new Inflater();
+        long compressed = 0, written = 0;
+        try {
+            try (FileChannel out = FileChannel.open(staged,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                byte[] block = new byte[64 * 1024];
+                byte[] plain = new byte[256 * 1024];
+                while (true) {
+                    int len = in.readInt();
+                    if (len == 0) break;
+                    if (len < 0 || len > ResumableUploads.MAX_CHUNK) throw new IOException("非法的压缩块长度: " + len);
+                    if (len > block.length) block = new byte[len];
+                    in.readFully(block, 0, len);
+                    compressed += len;
+                    inflater.setInput(block, 0, len);
+                    while (true) {
+                        int n = inflater.inflate(plain);
+                        if (n == 0) {
+                            if (inflater.needsDictionary()) throw new IOException("不支持带字典的压缩流");
+                            break; // needsInput() 或 finished()
+                        }
+                        written += n;
+                        if (written > fileSize) throw new IOException("解压后的内容超过声明的大小 " + fileSize);
+                        ByteBuffer bb = ByteBuffer.wrap(plain, 0, n);
+                        while (bb.hasRemaining()) out.write(bb);
+                    }
+                }
+                if (!inflater.finished() || written != fileSize) {
+                    throw new IOException("压缩内容不完整: " + written + "/" + fileSize);
+                }
+                if (shouldFsync(fileSize)) {
+                    out.force(true);
                 }
             }
+            String fileId = store.commit(staged, originalName);
+            System.out.println("上传成功(deflate " + compressed + " → " + written + " 字节): " + originalName
+                    + " → " + HTTP_BASE + "/files/" + fileId);
+            return fileId;
+        } catch (DataFormatException e) {
+            Files.deleteIfExists(staged);
+            throw new IOException("压缩数据损坏", e);
+        } catch (IOException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        } finally {
+            inflater.end();
+        }
+    }
 
-            // 3. 返回一行：SUCCESS /files/xxx_原名
-            String relativeUrl = "/files/" + fileId;
-            writer.println("SUCCESS " + relativeUrl); // 客户端用 readLine() 读取
-            System.out.println("上传成功: " + originalName + " → " + HTTP_BASE + relativeUrl);
+    private String receiveChunked(ChannelInput in, boolean deflateBlocks) throws IOException {
+        String uploadId = in.readUTF();
+        String originalName = java.net.URLDecoder.decode(in.readUTF(), "UTF-8");
+        long totalSize = in.readLong();
+        String hash = in.readUTF().toLowerCase();
 
-        } catch (Exception e) {
-            try (PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
-                writer.println("ERROR " + e.getMessage());
-            } catch (Exception ignored) {}
-            e.printStackTrace();
+        Inflater inflater = deflateBlocks ? new Inflater() : null;
+        try (ResumableUploads.Session session = resumable.open(uploadId, originalName, totalSize)) {
+            boolean exists = FileStore.isHash(hash) && store.hasBlob(hash, totalSize);
+            // 内容已存在时直接报告“全部已收到”，客户端随即发送结束块
+            writeLong(in.channel(), exists ? totalSize : session.offset());
+            in.expect(exists ? 0 : totalSize - session.offset());
+
+            boolean fsync = "always".equalsIgnoreCase(FSYNC_POLICY);
+            while (true) {
+                int len = in.readInt();
+                if (len == 0) break;
+                if (exists) throw new IOException("内容已存在，不应再发送数据块");
+                boolean ok;
+                if (len < 0 && inflater != null) {
+                    int rawLen = in.readInt();
+                    int crc = in.readInt();
+                    ok = session.append(inflateBlock(in, inflater, -len, rawLen), crc, fsync);
+                } else {
+                    ok = session.append(in, len, in.readInt(), fsync);
+                }
+                if (!ok) {
+                    writeLong(in.channel(), -1);
+                    throw new IOException("数据块校验失败，uploadId=" + uploadId + " @" + session.offset());
+                }
+                writeLong(in.channel(), session.offset());
+            }
+
+            String fileId;
+            if (exists) {
+                fileId = session.commitExisting(hash);
+            } else {
+                fileId = session.commit(shouldFsync(totalSize), hash);
+            }
+            System.out.println("续传上传完成: " + originalName + " → " + HTTP_BASE + "/files/" + fileId);
+            return fileId;
+        } finally {
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    private long receiveRange(ChannelInput in, boolean deflateBlocks) throws IOException {
+        String uploadId = in.readUTF();
+        String originalName = java.net.URLDecoder.decode(in.readUTF(), "UTF-8");
+        long totalSize = in.readLong();
+        long start = in.readLong();
+        long end = in.readLong();
+
+        Inflater inflater = deflateBlocks ? new Inflater() : null;
+        try (RangedUploads.RangeSession session = ranged.openRange(uploadId, originalName, totalSize, start, end)) {
+            writeLong(in.channel(), session.offset());
+            in.expect(end - session.offset());
+            boolean fsync = "always".equalsIgnoreCase(FSYNC_POLICY);
+            while (true) {
+                int len = in.readInt();
+                if (len == 0) break;
+                boolean ok;
+                if (len < 0 && inflater != null) {
+                    int rawLen = in.readInt();
+                    int crc = in.readInt();
+                    ok = session.append(inflateBlock(in, inflater, -len, rawLen), crc, fsync);
+                } else {
+                    ok = session.append(in, len, in.readInt(), fsync);
+                }
+                if (!ok) {
+                    writeLong(in.channel(), -1);
+                    throw new IOException("数据块校验失败，uploadId=" + uploadId + " @" + session.offset());
+                }
+                writeLong(in.channel(), session.offset());
+            }
+            return session.offset();
         } finally {
-            try { socket.close(); } catch (IOException ignored) {}
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    /** 读入一个压缩块并解压；每块都是独立的 deflate 流，解压后必须正好 rawLen 字节 */
+    private static ByteBuffer inflateBlock(ChannelInput in, Inflater inflater, int compressedLen, int rawLen) throws IOException {
+        if (compressedLen <= 0 || compressedLen > ResumableUploads.MAX_CHUNK || rawLen <= 0 || rawLen > ResumableUploads.MAX_CHUNK) {
+            throw new IOException("非法的压缩块长度: " + compressedLen + " → " + rawLen);
+        }
+        byte[] packed = new byte[compressedLen];
+        in.readFully(packed);
+        byte[] raw = new byte[rawLen];
+        inflater.reset();
+        inflater.setInput(packed);
+        int n = 0;
+        try {
+            while (n < rawLen) {
+                int k = inflater.inflate(raw, n, rawLen - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+                n += k;
+            }
+            if (n == rawLen && !inflater.finished() && inflater.inflate(new byte[1]) != 0) n++; // 解压出的内容比声明的多
+        } catch (DataFormatException e) {
+            throw new IOException("压缩数据损坏", e);
+        }
+        if (n != rawLen || !inflater.finished()) throw new IOException("压缩块解压后长度不符: " + n + "/" + rawLen);
+        return ByteBuffer.wrap(raw);
+    }
+
+    private String commitRanged(ChannelInput in) throws IOException {
+        String uploadId = in.readUTF();
+        String originalName = java.net.URLDecoder.decode(in.readUTF(), "UTF-8");
+        long totalSize = in.readLong();
+        String hash = in.readUTF().toLowerCase();
+        String fileId = ranged.commit(uploadId, originalName, totalSize, hash, shouldFsync(totalSize));
+        if (fileId != null) {
+            System.out.println("分段上传完成: " + originalName + " → " + HTTP_BASE + "/files/" + fileId);
+        }
+        return fileId;
+    }
+
+    /** 把文件内容经 FileChannel.transferFrom 写入临时文件，再按内容哈希提交到仓库 */
+    private String receive(ChannelInput in, String originalName, long fileSize) throws IOException {
+        if (fileSize < 0) throw new IOException("非法的文件大小: " + fileSize);
+        in.expect(fileSize);
+        Path staged = store.newStagingFile();
+        try {
+            try (FileChannel out = FileChannel.open(staged,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                in.transferTo(out, 0, fileSize);
+                if (shouldFsync(fileSize)) {
+                    out.force(true);
+                }
+            }
+            String fileId = store.commit(staged, originalName);
+            System.out.println("上传成功: " + originalName + " → " + HTTP_BASE + "/files/" + fileId);
+            return fileId;
+        } catch (IOException e) {
+            Files.deleteIfExists(staged); // 不保留残缺文件
+            throw e;
+        }
+    }
+
+    private boolean shouldFsync(long fileSize) {
+        if ("always".equalsIgnoreCase(FSYNC_POLICY)) return true;
+        return "threshold".equalsIgnoreCase(FSYNC_POLICY) && fileSize >= FSYNC_THRESHOLD;
+    }
+
+    private static void writeLong(SocketChannel channel, long value) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(8).putLong(value);
+        bb.flip();
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+    }
+
+    private static void writeLine(SocketChannel channel, String line) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bb.hasRemaining()) {
+            channel.write(bb);
         }
     }
-}
\ No newline at end of file
+}
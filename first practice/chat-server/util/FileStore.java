@@ -0,0 +1,416 @@
+package com.chat.server.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 按内容寻址的文件仓库：
+ *   files/blobs/ab/cd/<sha256>  文件内容，按哈希前缀分两级目录，相同内容只存一份
+ *   files/staging/              接收中的临时文件，提交时原子移动到 blobs/
+ *   files/index.dat             索引快照（二进制）：每个 blob 的大小、创建/最后下载时间及其 fileId
+ *   files/index.log             快照之后的增量日志，启动时重放后并入新快照
+ *
+ * 对外的 fileId 形如 <sha256>_<原文件名>，同样的内容和文件名总是得到同一个 URL。
+ * 索引常驻内存，判断文件是否存在、定位文件都不需要访问磁盘。
+ */
+public class FileStore {
+    private static final long HASH_WINDOW = 64L * 1024 * 1024;
+    private static final int SNAPSHOT_MAGIC = 0x46494458; // "FIDX"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final Path root;
+    private final Path blobDir;
+    private final Path stagingDir;
+    private final Path journalFile;
+    private final Path snapshotFile;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>(); // fileId → 条目
+    private final ConcurrentHashMap<String, Blob> blobs = new ConcurrentHashMap<>();    // hash → blob
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final List<Consumer<String>> evictionListeners = new CopyOnWriteArrayList<>(); // 参数为被删除内容的 hash
+
+    public static class Entry {
+        public final String hash;
+        public final long size;
+
+        Entry(String hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    /** 一份内容及引用它的所有 fileId；lastAccess 为最后一次被下载的时间 */
+    public static class Blob {
+        public final String hash;
+        public final long size;
+        public final long created;
+        volatile long lastAccess;
+        final Set<String> fileIds = ConcurrentHashMap.newKeySet();
+
+        Blob(String hash, long size, long created, long lastAccess) {
+            this.hash = hash;
+            this.size = size;
+            this.created = created;
+            this.lastAccess = lastAccess;
+        }
+
+        public long lastAccess() {
+            return lastAccess;
+        }
+    }
+
+    public FileStore(String rootDir) throws IOException {
+        this.root = Paths.get(rootDir);
+        this.blobDir = root.resolve("blobs");
+        this.stagingDir = root.resolve("staging");
+        this.journalFile = root.resolve("index.log");
+        this.snapshotFile = root.resolve("index.dat");
+        Files.createDirectories(blobDir);
+        Files.createDirectories(stagingDir);
+        loadSnapshot();
+        replayJournal();
+        reconcileBlobs();
+        migrateLegacyFiles();
+        writeSnapshot();
+        System.out.println("文件索引已载入：" + entries.size() + " 个文件，" + blobs.size() + " 个 blob，共 " + usedBytes.get() + " 字节");
+    }
+
+    // ---------------------------------------------------------------- 索引加载
+
+    private void loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                System.err.println("索引快照格式不识别，忽略：" + snapshotFile);
+                return;
+            }
+            int count = in.readInt();
+            byte[] raw = new byte[32];
+            for (int i = 0; i < count; i++) {
+                in.readFully(raw);
+                Blob b = new Blob(toHex(raw), in.readLong(), in.readLong(), in.readLong());
+                addBlob(b);
+                int ids = in.readInt();
+                for (int j = 0; j < ids; j++) {
+                    link(in.readUTF(), b);
+                }
+            }
+        } catch (EOFException e) {
+            System.err.println("索引快照不完整，已载入的部分仍然有效");
+        }
+    }
+
+    /**
+     * 日志行：
+     *   +\tfileId\thash\tsize\tcreated   登记
+     *   -\thash                          淘汰
+     *   fileId\thash\tsize               旧版格式
+     */
+    private void replayJournal() throws IOException {
+        if (!Files.exists(journalFile)) return;
+        try (BufferedReader r = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] p = line.split("\t");
+                try {
+                    if (p.length == 5 && "+".equals(p[0])) {
+                        long created = Long.parseLong(p[4]);
+                        link(p[1], blobs.computeIfAbsent(p[2], h -> newBlob(h, Long.parseLong(p[3]), created)));
+                    } else if (p.length == 3) {
+                        link(p[0], blobs.computeIfAbsent(p[1], h -> newBlob(h, Long.parseLong(p[2]), System.currentTimeMillis())));
+                    } else if (p.length == 2 && "-".equals(p[0])) {
+                        dropFromIndex(p[1]);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // 写到一半的行
+                }
+            }
+        }
+    }
+
+    private Blob newBlob(String hash, long size, long created) {
+        usedBytes.addAndGet(size);
+        return new Blob(hash, size, created, created);
+    }
+
+    /**
+     * 以磁盘为准校正索引：没有文件的条目删掉；平铺在 blobs/ 下的旧文件移到分级目录；
+     * 索引里没有的 blob（例如提交后还没来得及写日志就崩溃）收编为无名 blob，仍可用于去重。
+     * 只在启动时遍历一次目录，之后不再逐个 stat。
+     */
+    private void reconcileBlobs() throws IOException {
+        Map<String, Long> onDisk = new HashMap<>();
+        try (Stream<Path> walk = Files.walk(blobDir)) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                String name = p.getFileName().toString();
+                if (!isHash(name) || !Files.isRegularFile(p)) continue;
+                Path target = blobPath(name);
+                if (!p.equals(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(p, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                onDisk.put(name, Files.size(target));
+            }
+        }
+        for (Blob b : new ArrayList<>(blobs.values())) {
+            if (!onDisk.containsKey(b.hash)) dropFromIndex(b.hash);
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> e : onDisk.entrySet()) {
+            if (!blobs.containsKey(e.getKey())) addBlob(new Blob(e.getKey(), e.getValue(), now, now));
+        }
+    }
+
+    /** 早期版本直接存放在 files/ 下的 UUID_原名 文件：搬进仓库，fileId 保持原名，旧 URL 继续可用 */
+    private void migrateLegacyFiles() throws IOException {
+        List<Path> legacy = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                if (Files.isRegularFile(p) && !name.startsWith("index.")) legacy.add(p);
+            }
+        }
+        for (Path p : legacy) {
+            String fileId = sanitize(p.getFileName().toString());
+            long created = Files.readAttributes(p, BasicFileAttributes.class).lastModifiedTime().toMillis();
+            String hash = sha256(p);
+            Blob b = storeBlob(p, hash, Files.size(p), created);
+            if (entries.putIfAbsent(fileId, new Entry(hash, b.size)) == null) {
+                b.fileIds.add(fileId);
+                appendJournal("+\t" + fileId + "\t" + hash + "\t" + b.size + "\t" + b.created + "\n");
+            }
+        }
+        if (!legacy.isEmpty()) System.out.println("已迁移旧版文件 " + legacy.size() + " 个");
+    }
+
+    private void addBlob(Blob b) {
+        if (blobs.putIfAbsent(b.hash, b) == null) usedBytes.addAndGet(b.size);
+    }
+
+    private void link(String fileId, Blob b) {
+        entries.put(fileId, new Entry(b.hash, b.size));
+        b.fileIds.add(fileId);
+    }
+
+    private void dropFromIndex(String hash) {
+        Blob b = blobs.remove(hash);
+        if (b == null) return;
+        usedBytes.addAndGet(-b.size);
+        for (String id : b.fileIds) entries.remove(id);
+    }
+
+    // ---------------------------------------------------------------- 写入
+
+    /** 新建一个接收用的临时文件路径（文件本身由调用方创建） */
+    public Path newStagingFile() {
+        return stagingDir.resolve(UUID.randomUUID().toString() + ".tmp");
+    }
+
+    /** 暂存区里指定名字的文件（断点续传用固定名字，便于重连后找回） */
+    public Path stagingPath(String name) {
+        return stagingDir.resolve(name);
+    }
+
+    public Path stagingDir() {
+        return stagingDir;
+    }
+
+    /** 是否已经有这份内容 */
+    public boolean hasBlob(String hash, long size) {
+        Blob b = blobs.get(hash);
+        return b != null && b.size == size;
+    }
+
+    /**
+     * 提交一个接收完毕的临时文件：计算 SHA-256，内容已存在则直接丢弃临时文件，
+     * 否则原子移动到 blobs/。返回 fileId。
+     */
+    public String commit(Path staged, String originalName) throws IOException {
+        return commit(staged, originalName, null);
+    }
+
+    /**
+     * 同 commit，但 expectedHash 是合法哈希时先比对：内容的 SHA-256 与它不符则不入库、
+     * 不动临时文件，返回 null，由调用方决定如何清理。
+     */
+    public String commit(Path staged, String originalName, String expectedHash) throws IOException {
+        long size = Files.size(staged);
+        String hash = sha256(staged); // 哈希在锁外计算
+        if (isHash(expectedHash) && !hash.equals(expectedHash)) {
+            System.err.println("内容校验失败: " + staged.getFileName() + " 实际 sha256=" + hash + "，声明为 " + expectedHash);
+            return null;
+        }
+        synchronized (this) {
+            storeBlob(staged, hash, size, System.currentTimeMillis());
+            return register(hash, size, originalName);
+        }
+    }
+
+    /** 把 source 作为 hash 的内容放进仓库（已存在则删掉 source），返回对应的 blob */
+    private synchronized Blob storeBlob(Path source, String hash, long size, long created) throws IOException {
+        Blob b = blobs.get(hash);
+        if (b != null) {
+            Files.deleteIfExists(source);
+            return b;
+        }
+        Path target = blobPath(hash);
+        Files.createDirectories(target.getParent());
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        b = new Blob(hash, size, created, created);
+        addBlob(b);
+        return b;
+    }
+
+    /** 给已存在的 blob 登记一个名字（hash-first 命中时使用），返回 fileId */
+    public synchronized String register(String hash, long size, String originalName) throws IOException {
+        Blob b = blobs.get(hash);
+        if (b == null || b.size != size) throw new IOException("内容不存在或已被清理: " + hash);
+        String fileId = hash + "_" + sanitize(originalName);
+        if (entries.putIfAbsent(fileId, new Entry(hash, size)) == null) {
+            b.fileIds.add(fileId);
+            appendJournal("+\t" + fileId + "\t" + hash + "\t" + size + "\t" + b.created + "\n");
+        }
+        b.lastAccess = System.currentTimeMillis(); // 重新分享也算一次使用
+        return fileId;
+    }
+
+    // ---------------------------------------------------------------- 查询
+
+    public Entry lookup(String fileId) {
+        return entries.get(fileId);
+    }
+
+    /** fileId 对应的磁盘文件，不存在时返回 null（只查内存索引） */
+    public Path resolve(String fileId) {
+        Entry e = entries.get(fileId);
+        return e != null ? blobPath(e.hash) : null;
+    }
+
+    /** 记录一次下载，供 LRU 淘汰使用 */
+    public void touch(String fileId) {
+        Entry e = entries.get(fileId);
+        Blob b = e != null ? blobs.get(e.hash) : null;
+        if (b != null) b.lastAccess = System.currentTimeMillis();
+    }
+
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    public Collection<Blob> blobs() {
+        return Collections.unmodifiableCollection(blobs.values());
+    }
+
+    // ---------------------------------------------------------------- 淘汰与快照
+
+    /** 内容被 evict 删除后回调，供缓存等按 hash 持有内容的组件同步失效 */
+    public void addEvictionListener(Consumer<String> listener) {
+        evictionListeners.add(listener);
+    }
+
+    /** 删除一份内容及引用它的所有 fileId，返回释放的字节数 */
+    public synchronized long evict(String hash) throws IOException {
+        Blob b = blobs.get(hash);
+        if (b == null) return 0;
+        dropFromIndex(hash);
+        try {
+            appendJournal("-\t" + hash + "\n");
+            Files.deleteIfExists(blobPath(hash));
+        } finally {
+            for (Consumer<String> l : evictionListeners) l.accept(hash); // 已从索引移除，缓存也不能再提供
+        }
+        return b.size;
+    }
+
+    /** 把内存索引写成新快照并清空增量日志 */
+    public synchronized void writeSnapshot() throws IOException {
+        Path tmp = root.resolve("index.dat.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            List<Blob> all = new ArrayList<>(blobs.values());
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(all.size());
+            for (Blob b : all) {
+                out.write(fromHex(b.hash));
+                out.writeLong(b.size);
+                out.writeLong(b.created);
+                out.writeLong(b.lastAccess);
+                List<String> ids = new ArrayList<>(b.fileIds);
+                out.writeInt(ids.size());
+                for (String id : ids) out.writeUTF(id);
+            }
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journalFile);
+    }
+
+    private Path blobPath(String hash) {
+        return blobDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private synchronized void appendJournal(String line) throws IOException {
+        try (FileChannel ch = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer bb = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (bb.hasRemaining()) ch.write(bb);
+        }
+    }
+
+    /** 文件名里不允许出现路径分隔符、控制字符和索引用的制表符 */
+    static String sanitize(String name) {
+        String s = name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+        while (s.startsWith(".")) s = s.substring(1);
+        return s.isEmpty() ? "file" : s;
+    }
+
+    public static boolean isHash(String s) {
+        return s != null && s.matches("[0-9a-f]{64}");
+    }
+
+    /** 通过 mmap 计算 SHA-256，刚写完的文件大多还在 page cache 里 */
+    static String sha256(Path file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += HASH_WINDOW) {
+                MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(HASH_WINDOW, size - pos));
+                md.update(mb);
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return out;
+    }
+}
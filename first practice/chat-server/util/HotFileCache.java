@@ -0,0 +1,182 @@
+package com.chat.server.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载路径上的热点文件缓存：文件发到公共频道后，所有在线客户端会在几秒内下载同一个 URL，
+ * 缓存后这些请求直接从内存发送，不再反复读盘。
+ * - 内容放在堆外（direct ByteBuffer），不占用堆也不参与 GC 复制；
+ * - 只缓存不超过 maxFileBytes 的文件，总量超过 maxBytes 时按最近最少使用淘汰；
+ * - 按内容哈希缓存，同一内容的不同 fileId 共享一份；内容不可变，只在 FileStore.evict 删除它时失效；
+ * - 同一文件并发未命中时只读一次盘，其余请求等待同一次加载。
+ * 堆外内存上限受 -XX:MaxDirectMemorySize 约束（默认等于最大堆），maxBytes 应小于它。
+ */
+public class HotFileCache {
+    private final long MAX_BYTES = AppConfig.getLong("file.cache.maxBytes", 256L * 1024 * 1024);
+    private final long MAX_FILE_BYTES = AppConfig.getLong("file.cache.maxFileBytes", 8L * 1024 * 1024);
+
+    private final FileStore store;
+    private final LinkedHashMap<String, ByteBuffer> lru = new LinkedHashMap<>(64, 0.75f, true); // 访问顺序
+    private final ConcurrentHashMap<String, CompletableFuture<ByteBuffer>> loading = new ConcurrentHashMap<>();
+    private long cachedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+
+    public HotFileCache(FileStore store) {
+        this.store = store;
+        store.addEvictionListener(this::invalidate);
+    }
+
+    public boolean enabled() {
+        return MAX_BYTES > 0 && MAX_FILE_BYTES > 0;
+    }
+
+    /**
+     * 取 fileId 的完整内容，返回只读视图（调用方可自由修改 position/limit）。
+     * 文件过大或缓存关闭时返回 null，调用方应走磁盘路径。
+     */
+    public ByteBuffer get(String fileId) throws IOException {
+        FileStore.Entry entry = store.lookup(fileId);
+        if (entry == null || !enabled()) return null;
+        if (!cacheable(entry)) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        synchronized (lru) {
+            ByteBuffer cached = lru.get(entry.hash);
+            if (cached != null) {
+                hits.incrementAndGet();
+                hitBytes.addAndGet(cached.capacity());
+                return cached.duplicate();
+            }
+        }
+        misses.incrementAndGet();
+        ByteBuffer loaded = load(entry.hash, store.resolve(fileId), entry.size);
+        return loaded != null ? loaded.duplicate() : null;
+    }
+
+    /** 单个文件既不能超过 maxFileBytes，也不能超过整个缓存的 maxBytes */
+    private boolean cacheable(FileStore.Entry entry) {
+        return entry.size <= MAX_FILE_BYTES && entry.size <= MAX_BYTES;
+    }
+
+    /**
+     * 只查缓存、不加载也不计入命中统计，没有时返回 null。
+     * 用于 HEAD 这类只需要大小的请求，避免为它们读盘并占用缓存。
+     */
+    public ByteBuffer peek(String fileId) {
+        FileStore.Entry entry = store.lookup(fileId);
+        if (entry == null) return null;
+        synchronized (lru) {
+            ByteBuffer cached = lru.get(entry.hash);
+            return cached != null ? cached.duplicate() : null;
+        }
+    }
+
+    /** 内容已从仓库删除，丢弃缓存中的副本 */
+    public void invalidate(String hash) {
+        synchronized (lru) {
+            ByteBuffer removed = lru.remove(hash);
+            if (removed != null) cachedBytes -= removed.capacity();
+        }
+    }
+
+    /** 新上传的文件预先放进缓存，随后的第一批下载即可命中 */
+    public void warm(String fileId) {
+        FileStore.Entry entry = store.lookup(fileId);
+        if (entry == null || !enabled() || !cacheable(entry)) return;
+        synchronized (lru) {
+            if (lru.containsKey(entry.hash)) return;
+        }
+        try {
+            load(entry.hash, store.resolve(fileId), entry.size);
+        } catch (IOException e) {
+            System.err.println("预热缓存失败：" + fileId + "，" + e.getMessage());
+        }
+    }
+
+    private ByteBuffer load(String hash, Path file, long size) throws IOException {
+        CompletableFuture<ByteBuffer> mine = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> existing = loading.putIfAbsent(hash, mine);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待缓存加载时被中断");
+            } catch (ExecutionException e) {
+                return null; // 由加载方报告错误，这里退回磁盘路径
+            }
+        }
+        try {
+            ByteBuffer buf = readDirect(file, size);
+            admit(hash, buf);
+            if (!store.hasBlob(hash, size)) invalidate(hash); // 读盘期间内容被 evict，不能留在缓存里
+            mine.complete(buf);
+            return buf;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            if (e instanceof NoSuchFileException) return null; // 让磁盘路径返回 404
+            throw e;
+        } finally {
+            loading.remove(hash);
+        }
+    }
+
+    private static ByteBuffer readDirect(Path file, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect((int) size);
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, buf.position()) < 0) throw new EOFException("文件比索引记录的短: " + file);
+            }
+        }
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    private void admit(String hash, ByteBuffer buf) {
+        synchronized (lru) {
+            if (lru.containsKey(hash)) return;
+            lru.put(hash, buf);
+            cachedBytes += buf.capacity();
+            Iterator<Map.Entry<String, ByteBuffer>> it = lru.entrySet().iterator();
+            while (cachedBytes > MAX_BYTES && it.hasNext()) {
+                Map.Entry<String, ByteBuffer> eldest = it.next();
+                if (eldest.getKey().equals(hash)) continue;
+                cachedBytes -= eldest.getValue().capacity();
+                it.remove(); // 堆外内存随 ByteBuffer 被回收时释放
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public String stats() {
+        int entries;
+        long bytes;
+        synchronized (lru) {
+            entries = lru.size();
+            bytes = cachedBytes;
+        }
+        long h = hits.get(), m = misses.get();
+        long ratio = h + m == 0 ? 0 : h * 100 / (h + m);
+        return "entries=" + entries + " bytes=" + bytes + " hits=" + h + " misses=" + m + " hitRatio=" + ratio + "%"
+                + " hitBytes=" + hitBytes.get() + " evictions=" + evictions.get() + " tooLarge=" + rejected.get();
+    }
+}
@@ -0,0 +1,295 @@
+package com.chat.server.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 多连接并行上传的暂存区：客户端把文件切成若干段，每段走一条连接按偏移写入，
+ * 服务端记录已确认的区间，全部覆盖后整体提交。
+ *   files/staging/<uploadId>.rpart    数据文件，各段按偏移直接写入（不预分配，中间未写到的部分是空洞）
+ *   files/staging/<uploadId>.rmeta    文件名与总大小
+ *   files/staging/<uploadId>.ranges   已确认的区间，每行 "start end"（end 不含）
+ * 区间按字节而不是按分段记录，所以续传时客户端换一种切分方式也没关系。
+ */
+public class RangedUploads {
+    private final FileStore store;
+    private final ConcurrentHashMap<String, Upload> open = new ConcurrentHashMap<>();
+    private final Set<String> busyRanges = ConcurrentHashMap.newKeySet();
+
+    public RangedUploads(FileStore store) {
+        this.store = store;
+    }
+
+    /** 同一个 uploadId 的所有连接共享一个 Upload（同一个 FileChannel，按位置写互不干扰） */
+    private class Upload {
+        final String uploadId;
+        final String originalName;
+        final long totalSize;
+        final Path part;
+        final Path meta;
+        final Path ranges;
+        final FileChannel channel;
+        final TreeMap<Long, Long> covered = new TreeMap<>(); // start → end，互不重叠
+        int refs;
+
+        Upload(String uploadId, String originalName, long totalSize) throws IOException {
+            this.uploadId = uploadId;
+            this.originalName = originalName;
+            this.totalSize = totalSize;
+            this.part = store.stagingPath(uploadId + ".rpart");
+            this.meta = store.stagingPath(uploadId + ".rmeta");
+            this.ranges = store.stagingPath(uploadId + ".ranges");
+            boolean resume = metaMatches(meta, originalName, totalSize) && Files.exists(part);
+            if (!resume) {
+                Files.deleteIfExists(ranges);
+                writeMeta();
+            }
+            this.channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (resume) {
+                loadRanges();
+            } else {
+                channel.truncate(0);
+            }
+        }
+
+        private void writeMeta() throws IOException {
+            Properties p = new Properties();
+            p.setProperty("name", originalName);
+            p.setProperty("size", String.valueOf(totalSize));
+            try (Writer w = Files.newBufferedWriter(meta, StandardCharsets.UTF_8)) {
+                p.store(w, null);
+            }
+        }
+
+        private void loadRanges() {
+            if (!Files.exists(ranges)) return;
+            try (BufferedReader r = Files.newBufferedReader(ranges, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    String[] p = line.trim().split(" ");
+                    if (p.length == 2) markCovered(Long.parseLong(p[0]), Long.parseLong(p[1]));
+                }
+            } catch (IOException | NumberFormatException e) {
+                covered.clear(); // 进度文件损坏时宁可重传
+            }
+        }
+
+        /** 合并插入一个已确认区间 */
+        synchronized void markCovered(long start, long end) {
+            Map.Entry<Long, Long> before = covered.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+                covered.remove(before.getKey());
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = covered.ceilingEntry(start)) != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                covered.remove(next.getKey());
+            }
+            covered.put(start, end);
+        }
+
+        /** 从 from 开始连续已确认到哪里 */
+        synchronized long coveredUntil(long from) {
+            Map.Entry<Long, Long> e = covered.floorEntry(from);
+            return e != null && e.getValue() > from ? e.getValue() : from;
+        }
+
+        synchronized boolean complete() {
+            return totalSize == 0 || (covered.size() == 1 && covered.firstKey() == 0 && covered.firstEntry().getValue() >= totalSize);
+        }
+
+        /** 先写临时文件再原子替换，崩溃时 .ranges 要么是旧内容要么是新内容，不会是写了一半的 */
+        synchronized void saveRanges() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Long, Long> e : covered.entrySet()) {
+                sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+            }
+            Path tmp = store.stagingPath(uploadId + ".ranges.tmp");
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, ranges, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void deleteFiles() throws IOException {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(meta);
+            Files.deleteIfExists(ranges);
+        }
+    }
+
+    /** .rmeta 记录的文件名和总大小是否与本次请求一致 */
+    private static boolean metaMatches(Path meta, String originalName, long totalSize) {
+        if (!Files.exists(meta)) return false;
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+            p.load(r);
+        } catch (IOException e) {
+            return false;
+        }
+        return originalName.equals(p.getProperty("name")) && String.valueOf(totalSize).equals(p.getProperty("size"));
+    }
+
+    private Upload acquire(String uploadId, String originalName, long totalSize) throws IOException {
+        synchronized (open) {
+            Upload u = open.get(uploadId);
+            if (u != null && (u.totalSize != totalSize || !u.originalName.equals(originalName))) {
+                throw new IOException("uploadId 与正在进行的上传不一致: " + uploadId);
+            }
+            if (u == null) {
+                u = new Upload(uploadId, originalName, totalSize);
+                open.put(uploadId, u);
+            }
+            u.refs++;
+            return u;
+        }
+    }
+
+    private void release(Upload u) throws IOException {
+        synchronized (open) {
+            if (--u.refs == 0) {
+                open.remove(u.uploadId);
+                u.channel.close();
+            }
+        }
+    }
+
+    /** 打开一段 [start, end) 的写入会话；同一段同时只允许一个连接 */
+    public RangeSession openRange(String uploadId, String originalName, long totalSize, long start, long end) throws IOException {
+        if (!ResumableUploads.isValidId(uploadId)) throw new IOException("非法的 uploadId: " + uploadId);
+        if (totalSize < 0 || start < 0 || start >= end || end > totalSize) {
+            throw new IOException("非法的分段: [" + start + ", " + end + ") / " + totalSize);
+        }
+        String key = uploadId + "@" + start;
+        if (!busyRanges.add(key)) throw new IOException("该分段正在另一个连接中上传: " + key);
+        try {
+            return new RangeSession(acquire(uploadId, originalName, totalSize), key, start, end);
+        } catch (IOException e) {
+            busyRanges.remove(key);
+            throw e;
+        }
+    }
+
+    public class RangeSession implements Closeable {
+        private final Upload upload;
+        private final String key;
+        private final long end;
+        private long offset;
+        private boolean closed;
+
+        RangeSession(Upload upload, String key, long start, long end) {
+            this.upload = upload;
+            this.key = key;
+            this.end = end;
+            this.offset = Math.min(upload.coveredUntil(start), end);
+        }
+
+        /** 本段已确认到的绝对偏移 */
+        public long offset() {
+            return offset;
+        }
+
+        /** 读入一个块写到当前偏移处；校验失败返回 false，偏移不前进 */
+        public boolean append(ChannelInput in, int len, int expectedCrc, boolean fsync) throws IOException {
+            if (len <= 0 || len > ResumableUploads.MAX_CHUNK || offset + len > end) {
+                throw new IOException("非法的块长度: " + len + " @" + offset);
+            }
+            CRC32 crc = new CRC32();
+            in.copyTo(upload.channel, offset, len, crc);
+            if ((int) crc.getValue() != expectedCrc) return false;
+            if (fsync) upload.channel.force(false);
+            upload.markCovered(offset, offset + len);
+            upload.saveRanges();
+            offset += len;
+            return true;
+        }
+
+        /** 写入一个已在内存中的块（压缩块解压后的内容）；校验失败返回 false，偏移不前进 */
+        public boolean append(ByteBuffer data, int expectedCrc, boolean fsync) throws IOException {
+            int len = data.remaining();
+            if (len <= 0 || len > ResumableUploads.MAX_CHUNK || offset + len > end) {
+                throw new IOException("非法的块长度: " + len + " @" + offset);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            if ((int) crc.getValue() != expectedCrc) return false;
+            while (data.hasRemaining()) upload.channel.write(data, offset + (len - data.remaining()));
+            if (fsync) upload.channel.force(false);
+            upload.markCovered(offset, offset + len);
+            upload.saveRanges();
+            offset += len;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                release(upload);
+            } finally {
+                busyRanges.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 提交并行上传。内容已在仓库中时直接登记；所有字节都已确认时提交到 FileStore；
+     * 否则返回 null，表示还有分段没传完。文件名或大小与暂存记录不符时报错，暂存文件保持原样。
+     * .ranges 不 fsync，崩溃后可能把没落盘的空洞记成已收到，所以提交前按客户端给的 sha256 校验整个文件；
+     * 不符时清空 .ranges 并报错，客户端再次上传时所有分段都会重传。
+     */
+    public String commit(String uploadId, String originalName, long totalSize, String hash, boolean fsync) throws IOException {
+        if (!ResumableUploads.isValidId(uploadId)) throw new IOException("非法的 uploadId: " + uploadId);
+        if (FileStore.isHash(hash) && store.hasBlob(hash, totalSize)) {
+            synchronized (open) {
+                Path meta = store.stagingPath(uploadId + ".rmeta");
+                if (!open.containsKey(uploadId) && metaMatches(meta, originalName, totalSize)) {
+                    Files.deleteIfExists(store.stagingPath(uploadId + ".rpart"));
+                    Files.deleteIfExists(store.stagingPath(uploadId + ".rmeta"));
+                    Files.deleteIfExists(store.stagingPath(uploadId + ".ranges"));
+                }
+            }
+            return store.register(hash, totalSize, originalName);
+        }
+        Upload u;
+        synchronized (open) {
+            if (open.containsKey(uploadId)) throw new IOException("仍有分段在上传中: " + uploadId);
+            Path meta = store.stagingPath(uploadId + ".rmeta");
+            if (!Files.exists(meta) || !Files.exists(store.stagingPath(uploadId + ".rpart"))) return null;
+            if (!metaMatches(meta, originalName, totalSize)) {
+                throw new IOException("提交的文件名或大小与上传记录不一致: " + uploadId);
+            }
+            u = new Upload(uploadId, originalName, totalSize);
+            open.put(uploadId, u); // 占住，防止提交过程中又有分段连进来
+            u.refs = 1;
+        }
+        try {
+            if (!u.complete()) return null;
+            if (fsync) u.channel.force(true);
+            u.channel.close();
+            String fileId = store.commit(u.part, originalName, hash);
+            if (fileId == null) {
+                Files.deleteIfExists(u.ranges);
+                throw new IOException("合并后的内容与 sha256 不一致，已清空上传进度，请重新上传: " + uploadId);
+            }
+            Files.deleteIfExists(u.meta);
+            Files.deleteIfExists(u.ranges);
+            return fileId;
+        } finally {
+            release(u);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.chat.server.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 断点续传的暂存区。每个 uploadId 对应
+ *   files/staging/<uploadId>.part   已收到的字节
+ *   files/staging/<uploadId>.meta   文件名与总大小
+ *   files/staging/<uploadId>.acks   每个已确认块一条记录：块结束偏移（long）+ 块的 CRC32（int）
+ * 连接断开后这些文件保留，客户端重连时从已确认的偏移处继续；全部到齐后整体提交到 FileStore。
+ *
+ * 默认不 fsync，进程或机器崩溃后 .part 的长度不可信：尾部可能是没落盘的空洞或旧数据。
+ * 所以本进程第一次恢复某个上传时，按 .acks 逐块重算 CRC，只把校验通过的最长前缀当作已确认，
+ * 其后的数据截掉让客户端重传。本进程内写入、确认过的上传不会丢页，再次恢复时不必重读。
+ */
+public class ResumableUploads {
+    public static final int MAX_CHUNK = 4 * 1024 * 1024;
+    private static final int ACK_RECORD = 12;
+
+    private final FileStore store;
+    private final Set<String> busy = ConcurrentHashMap.newKeySet();
+    private final Set<String> verified = ConcurrentHashMap.newKeySet(); // 本进程内已校验或从头写入的 uploadId
+
+    public ResumableUploads(FileStore store) {
+        this.store = store;
+    }
+
+    public static boolean isValidId(String uploadId) {
+        return uploadId != null && uploadId.matches("[0-9A-Za-z_-]{8,64}");
+    }
+
+    /**
+     * 打开（或恢复）一个上传。同一 uploadId 同时只允许一个连接写入。
+     * 已有暂存但大小对不上时视为新上传，丢弃旧数据。
+     */
+    public Session open(String uploadId, String originalName, long totalSize) throws IOException {
+        if (!isValidId(uploadId)) throw new IOException("非法的 uploadId: " + uploadId);
+        if (totalSize < 0) throw new IOException("非法的文件大小: " + totalSize);
+        if (!busy.add(uploadId)) throw new IOException("该上传正在另一个连接中进行: " + uploadId);
+        try {
+            Path part = store.stagingPath(uploadId + ".part");
+            Path meta = store.stagingPath(uploadId + ".meta");
+            Path acks = store.stagingPath(uploadId + ".acks");
+            if (!matchesMeta(meta, originalName, totalSize)) {
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(acks);
+                writeMeta(meta, originalName, totalSize);
+                verified.add(uploadId);
+            }
+            FileChannel ch = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel ackCh = null;
+            try {
+                ackCh = FileChannel.open(acks, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                long acked = recover(uploadId, ch, ackCh, totalSize);
+                return new Session(uploadId, originalName, totalSize, part, meta, acks, ch, ackCh, acked);
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                if (ackCh != null) ackCh.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            busy.remove(uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * 求已确认的偏移，并把 .part / .acks 截到这个位置。
+     * 本进程第一次打开时逐块校验 CRC，遇到第一个对不上（或记录不完整）的块即停止。
+     */
+    private long recover(String uploadId, FileChannel part, FileChannel acks, long totalSize) throws IOException {
+        long records = acks.size() / ACK_RECORD;
+        boolean trusted = verified.contains(uploadId);
+        ByteBuffer rec = ByteBuffer.allocate(ACK_RECORD);
+        ByteBuffer data = trusted ? null : ByteBuffer.allocate(MAX_CHUNK);
+        long acked = 0;
+        long good = 0;
+        for (; good < records; good++) {
+            rec.clear();
+            while (rec.hasRemaining()) {
+                if (acks.read(rec, good * ACK_RECORD + rec.position()) < 0) throw new EOFException(".acks 被截断");
+            }
+            rec.flip();
+            long end = rec.getLong();
+            int crc = rec.getInt();
+            if (end <= acked || end - acked > MAX_CHUNK || end > totalSize || end > part.size()) break;
+            if (!trusted) {
+                data.clear();
+                data.limit((int) (end - acked));
+                while (data.hasRemaining()) {
+                    if (part.read(data, acked + data.position()) < 0) break;
+                }
+                if (data.hasRemaining()) break;
+                data.flip();
+                CRC32 c = new CRC32();
+                c.update(data);
+                if ((int) c.getValue() != crc) break;
+            }
+            acked = end;
+        }
+        if (!trusted && (good < records || part.size() > acked)) {
+            System.out.println("续传恢复: uploadId=" + uploadId + " 已确认 " + acked + " 字节，丢弃未通过校验的尾部 "
+                    + (part.size() - acked) + " 字节");
+        }
+        acks.truncate(good * ACK_RECORD);
+        part.truncate(acked);
+        verified.add(uploadId);
+        return acked;
+    }
+
+    private static boolean matchesMeta(Path meta, String name, long size) {
+        if (!Files.exists(meta)) return false;
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+            p.load(r);
+        } catch (IOException e) {
+            return false;
+        }
+        return name.equals(p.getProperty("name")) && String.valueOf(size).equals(p.getProperty("size"));
+    }
+
+    private static void writeMeta(Path meta, String name, long size) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("name", name);
+        p.setProperty("size", String.valueOf(size));
+        try (Writer w = Files.newBufferedWriter(meta, StandardCharsets.UTF_8)) {
+            p.store(w, null);
+        }
+    }
+
+    public class Session implements Closeable {
+        private final String uploadId;
+        private final String originalName;
+        private final long totalSize;
+        private final Path part;
+        private final Path meta;
+        private final Path acks;
+        private final FileChannel channel;
+        private final FileChannel ackChannel;
+        private final ByteBuffer ackRecord = ByteBuffer.allocate(ACK_RECORD);
+        private long acked;
+        private boolean closed;
+
+        Session(String uploadId, String originalName, long totalSize, Path part, Path meta, Path acks,
+                FileChannel channel, FileChannel ackChannel, long acked) {
+            this.uploadId = uploadId;
+            this.originalName = originalName;
+            this.totalSize = totalSize;
+            this.part = part;
+            this.meta = meta;
+            this.acks = acks;
+            this.channel = channel;
+            this.ackChannel = ackChannel;
+            this.acked = acked;
+        }
+
+        /** 已确认写入的字节数 */
+        public long offset() {
+            return acked;
+        }
+
+        public long totalSize() {
+            return totalSize;
+        }
+
+        /**
+         * 从连接上读入一个块追加到暂存文件。校验失败时截断回块开始处并返回 false。
+         */
+        public boolean append(ChannelInput in, int len, int expectedCrc, boolean fsync) throws IOException {
+            long start = acked;
+            if (len <= 0 || len > MAX_CHUNK || start + len > totalSize) {
+                throw new IOException("非法的块长度: " + len + " @" + start);
+            }
+            CRC32 crc = new CRC32();
+            try {
+                in.copyTo(channel, start, len, crc);
+            } catch (IOException e) {
+                channel.truncate(start); // 半个块不能算作已确认
+                throw e;
+            }
+            if ((int) crc.getValue() != expectedCrc) {
+                channel.truncate(start);
+                return false;
+            }
+            acknowledge(start + len, expectedCrc, fsync);
+            return true;
+        }
+
+        /** 追加一个已在内存中的块（压缩块解压后的内容）；校验失败返回 false，不写入 */
+        public boolean append(ByteBuffer data, int expectedCrc, boolean fsync) throws IOException {
+            long start = acked;
+            int len = data.remaining();
+            if (len <= 0 || len > MAX_CHUNK || start + len > totalSize) {
+                throw new IOException("非法的块长度: " + len + " @" + start);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            if ((int) crc.getValue() != expectedCrc) return false;
+            try {
+                while (data.hasRemaining()) channel.write(data, start + (len - data.remaining()));
+            } catch (IOException e) {
+                channel.truncate(start);
+                throw e;
+            }
+            acknowledge(start + len, expectedCrc, fsync);
+            return true;
+        }
+
+        /**
+         * 记下一个已确认的块。fsync 时先让数据落盘再写记录，记录本身随后落盘；
+         * 不 fsync 时记录里的 CRC 供崩溃后恢复时校验尾部。
+         */
+        private void acknowledge(long end, int crc, boolean fsync) throws IOException {
+            if (fsync) channel.force(false);
+            ackRecord.clear();
+            ackRecord.putLong(end).putInt(crc).flip();
+            long pos = ackChannel.size();
+            while (ackRecord.hasRemaining()) ackChannel.write(ackRecord, pos + ackRecord.position());
+            if (fsync) ackChannel.force(false);
+            acked = end;
+        }
+
+        /**
+         * 全部字节到齐后提交到 FileStore，返回 fileId。
+         * expectedHash 是合法哈希且与内容不符时丢弃暂存数据并报错，客户端重传时从头开始。
+         */
+        public String commit(boolean fsync, String expectedHash) throws IOException {
+            if (acked != totalSize) {
+                throw new IOException("上传未完成: " + acked + "/" + totalSize);
+            }
+            if (fsync) channel.force(true);
+            channel.close();
+            ackChannel.close();
+            String fileId = store.commit(part, originalName, expectedHash);
+            if (fileId == null) {
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(acks);
+                throw new IOException("收到的内容与 sha256 不一致，已丢弃，请重新上传: " + uploadId);
+            }
+            Files.deleteIfExists(acks);
+            Files.deleteIfExists(meta);
+            verified.remove(uploadId);
+            return fileId;
+        }
+
+        /** 内容已在仓库中（hash-first 命中），丢弃暂存，只登记名字 */
+        public String commitExisting(String hash) throws IOException {
+            channel.close();
+            ackChannel.close();
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(acks);
+            Files.deleteIfExists(meta);
+            verified.remove(uploadId);
+            return store.register(hash, totalSize, originalName);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                try {
+                    ackChannel.close();
+                } finally {
+                    busy.remove(uploadId);
+                }
+            }
+        }
+    }
+}
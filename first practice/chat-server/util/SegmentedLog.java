@@ -0,0 +1,306 @@
+package com.chat.server.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的分段日志，每段一个预分配的内存映射文件：
+ *   <dir>/<起始偏移，20 位数字>.log
+ * 记录格式：int 长度 | int CRC32 | long 时间戳 | short key 长度 | key | 内容，长度与 CRC 覆盖时间戳之后的部分。
+ * 偏移是全局字节偏移（段起始偏移 + 段内位置），单调递增，可直接作为“从某处之后继续读”的游标。
+ * 当前段写满时封存并新开一段；封存只落盘、不截断：仍被映射的文件在 Windows 上无法截断，
+ * 而段只在放不下下一条记录时才封存，末尾空着的部分不到一条记录。整段过期后按段删除。
+ * 启动时顺序扫描各段重建状态，遇到长度为 0 或校验不符的记录即视为末尾（上次崩溃时写了一半）。
+ * 已移出日志但删不掉的段文件（Windows 上仍被映射时无法删除）记在 <dir>/pending-delete.txt，
+ * 下次清理和下次启动时重试，启动时也不会再把它们当作日志段载入。
+ */
+public class SegmentedLog {
+    private static final int HEADER = 8;
+    private static final int MAX_KEY = 1024;
+    private static final String PENDING_DELETE = "pending-delete.txt";
+
+    public static class Record {
+        public final long offset;
+        public final long timestamp;
+        public final String key;
+        public final byte[] payload;
+
+        Record(long offset, long timestamp, String key, byte[] payload) {
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.key = key;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * 启动扫描时逐条回调，用于重建上层索引；之后每次 append 也在写锁内回调，
+     * 上层索引因此与日志同序，不会出现偏移乱序。
+     */
+    public interface Visitor {
+        void visit(long offset, long timestamp, String key);
+    }
+
+    private static class Segment {
+        final long base;
+        final Path file;
+        MappedByteBuffer map;
+        int size;           // 已写入字节数
+        long lastTimestamp; // 最后一条记录的时间，用于按时间清理
+
+        Segment(long base, Path file) {
+            this.base = base;
+            this.file = file;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Visitor visitor;
+    private final LinkedHashSet<String> pendingDeletes = new LinkedHashSet<>(); // 待删除的段文件名
+    private Segment active;
+
+    public SegmentedLog(String dir, int segmentBytes, Visitor visitor) throws IOException {
+        this.dir = Paths.get(dir);
+        this.segmentBytes = segmentBytes;
+        this.visitor = visitor;
+        Files.createDirectories(this.dir);
+        Path pendingFile = this.dir.resolve(PENDING_DELETE);
+        if (Files.exists(pendingFile)) {
+            pendingDeletes.addAll(Files.readAllLines(pendingFile, StandardCharsets.UTF_8));
+            pendingDeletes.remove("");
+            retryDeletes();
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(this.dir, "*.log")) {
+            for (Path p : ds) files.add(p);
+        }
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            if (pendingDeletes.contains(name)) continue; // 已被清理，只是还没删掉
+            try {
+                long base = Long.parseLong(name.substring(0, name.length() - 4));
+                segments.put(base, new Segment(base, p));
+            } catch (NumberFormatException e) {
+                System.err.println("忽略无法识别的日志段：" + p);
+            }
+        }
+        for (Segment s : segments.values()) {
+            boolean last = s == segments.lastEntry().getValue();
+            s.map = map(s.file, last ? Math.max(segmentBytes, Files.size(s.file)) : Files.size(s.file), last);
+            s.size = recover(s, visitor);
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, long size, boolean writable) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, writable
+                ? new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new StandardOpenOption[]{StandardOpenOption.READ})) {
+            return ch.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /** 扫描一段，返回有效数据的长度 */
+    private static int recover(Segment s, Visitor visitor) {
+        ByteBuffer buf = s.map.duplicate();
+        int pos = 0;
+        while (pos + HEADER <= buf.capacity()) {
+            int len = buf.getInt(pos);
+            if (len <= 10 || pos + HEADER + len > buf.capacity()) break;
+            int crc = buf.getInt(pos + 4);
+            if (crc != crc(buf, pos + HEADER, len)) break;
+            long ts = buf.getLong(pos + HEADER);
+            int keyLen = buf.getShort(pos + HEADER + 8);
+            if (keyLen < 0 || 10 + keyLen > len) break;
+            byte[] key = new byte[keyLen];
+            ByteBuffer kb = buf.duplicate();
+            kb.position(pos + HEADER + 10);
+            kb.get(key);
+            s.lastTimestamp = ts;
+            if (visitor != null) visitor.visit(s.base + pos, ts, new String(key, StandardCharsets.UTF_8));
+            pos += HEADER + len;
+        }
+        return pos;
+    }
+
+    private static int crc(ByteBuffer buf, int from, int len) {
+        ByteBuffer slice = buf.duplicate();
+        slice.limit(from + len);
+        slice.position(from);
+        CRC32 crc = new CRC32();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    /** 追加一条记录，返回它的偏移 */
+    public long append(String key, long timestamp, byte[] payload) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        if (k.length > MAX_KEY) throw new IOException("key 过长: " + key);
+        int len = 8 + 2 + k.length + payload.length;
+        if (HEADER + len > segmentBytes) throw new IOException("记录过大: " + payload.length + " 字节");
+        lock.writeLock().lock();
+        try {
+            if (active.size + HEADER + len > active.map.capacity()) {
+                seal(active);
+                roll(active.base + active.size);
+            }
+            int pos = active.size;
+            ByteBuffer buf = active.map.duplicate();
+            buf.position(pos + HEADER);
+            buf.putLong(timestamp);
+            buf.putShort((short) k.length);
+            buf.put(k);
+            buf.put(payload);
+            buf.putInt(pos + 4, crc(buf, pos + HEADER, len));
+            buf.putInt(pos, len); // 长度最后写，读到非 0 长度即说明整条记录已写完
+            active.size = pos + HEADER + len;
+            active.lastTimestamp = timestamp;
+            long offset = active.base + pos;
+            if (visitor != null) visitor.visit(offset, timestamp, key);
+            return offset;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** 读取指定偏移处的记录；偏移已被清理或无效时返回 null */
+    public Record read(long offset) {
+        lock.readLock().lock();
+        try {
+            Map.Entry<Long, Segment> e = segments.floorEntry(offset);
+            if (e == null) return null;
+            Segment s = e.getValue();
+            int pos = (int) (offset - s.base);
+            if (pos < 0 || pos + HEADER > s.size) return null;
+            ByteBuffer buf = s.map.duplicate();
+            int len = buf.getInt(pos);
+            long ts = buf.getLong(pos + HEADER);
+            int keyLen = buf.getShort(pos + HEADER + 8);
+            byte[] key = new byte[keyLen];
+            byte[] payload = new byte[len - 10 - keyLen];
+            buf.position(pos + HEADER + 10);
+            buf.get(key);
+            buf.get(payload);
+            return new Record(offset, ts, new String(key, StandardCharsets.UTF_8), payload);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** 把已写入的数据刷到磁盘 */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            active.map.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 删除最后一条记录早于 cutoff 的已封存段，返回删除后最早的有效偏移。
+     * 当前正在写的段不删。
+     */
+    public long deleteBefore(long cutoff) throws IOException {
+        List<Segment> doomed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (Segment s : segments.values()) {
+                if (s == active || s.lastTimestamp >= cutoff) break;
+                doomed.add(s);
+            }
+            for (Segment s : doomed) segments.remove(s.base);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (pendingDeletes) {
+            for (Segment s : doomed) pendingDeletes.add(s.file.getFileName().toString());
+            if (!doomed.isEmpty()) savePendingDeletes(); // 先记下来，删到一半崩溃也不会把旧段重新载入
+            retryDeletes();
+        }
+        return startOffset();
+    }
+
+    /** 逐个尝试删除待删除的段文件，删不掉的留到下次；调用方持有 pendingDeletes 的锁或处于构造阶段 */
+    private void retryDeletes() throws IOException {
+        if (pendingDeletes.isEmpty()) return;
+        boolean changed = false;
+        for (Iterator<String> it = pendingDeletes.iterator(); it.hasNext(); ) {
+            String name = it.next();
+            try {
+                Files.deleteIfExists(dir.resolve(name)); // 映射随对象回收释放，之前删不掉的下次再试
+                it.remove();
+                changed = true;
+            } catch (IOException e) {
+                System.err.println("暂时无法删除日志段 " + name + "，稍后重试：" + e.getMessage());
+            }
+        }
+        if (changed) savePendingDeletes();
+    }
+
+    private void savePendingDeletes() throws IOException {
+        Path file = dir.resolve(PENDING_DELETE);
+        if (pendingDeletes.isEmpty()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Path tmp = dir.resolve(PENDING_DELETE + ".tmp");
+        Files.write(tmp, pendingDeletes, StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public long startOffset() {
+        lock.readLock().lock();
+        try {
+            return segments.firstKey();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** 封存：落盘后不再写入。文件保持原大小，有效长度是 size（重启时由 recover 扫描得出） */
+    private void seal(Segment s) {
+        s.map.force();
+    }
+
+    private void roll(long base) throws IOException {
+        Path file = dir.resolve(String.format("%020d.log", base));
+        Segment s = new Segment(base, file);
+        s.map = map(file, segmentBytes, true);
+        segments.put(base, s);
+        active = s;
+    }
+}
@@ -0,0 +1,102 @@
+package com.chat.server.util;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 上传接收路径吞吐对比（本机回环）：
+ *   stream   —— 旧实现：DataInputStream + 8KB byte[] + FileOutputStream
+ *   transfer —— 新实现：ChannelInput.transferTo（FileChannel.transferFrom）
+ *
+ * 用法：java com.chat.server.util.UploadBenchmark [文件MB=256] [轮数=5]
+ */
+public class UploadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long size = sizeMb * 1024L * 1024L;
+
+        // 先各跑一轮预热 JIT
+        runOnce(false, size);
+        runOnce(true, size);
+
+        long streamNanos = 0, transferNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            streamNanos += runOnce(false, size);
+            transferNanos += runOnce(true, size);
+        }
+        System.out.printf("stream   : %.1f MB/s%n", mbps(size * rounds, streamNanos));
+        System.out.printf("transfer : %.1f MB/s%n", mbps(size * rounds, transferNanos));
+    }
+
+    private static double mbps(long bytes, long nanos) {
+        return bytes / 1024.0 / 1024.0 / (nanos / 1e9);
+    }
+
+    /** 返回服务端从读协议头到文件写完的耗时（纳秒） */
+    private static long runOnce(boolean transfer, long size) throws Exception {
+        Path target = Files.createTempFile("upload-bench", ".bin");
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+            Thread sender = new Thread(() -> send(port, size));
+            sender.start();
+
+            long elapsed;
+            try (SocketChannel ch = server.accept()) {
+                long start = System.nanoTime();
+                if (transfer) {
+                    ChannelInput in = new ChannelInput(ch);
+                    in.readUTF();
+                    long fileSize = in.readLong();
+                    try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                        in.transferTo(out, 0, fileSize);
+                    }
+                } else {
+                    DataInputStream dis = new DataInputStream(ch.socket().getInputStream());
+                    dis.readUTF();
+                    long fileSize = dis.readLong();
+                    try (FileOutputStream fos = new FileOutputStream(target.toFile())) {
+                        byte[] buffer = new byte[8192];
+                        int len;
+                        long received = 0;
+                        while (received < fileSize && (len = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize - received))) != -1) {
+                            fos.write(buffer, 0, len);
+                            received += len;
+                        }
+                    }
+                }
+                elapsed = System.nanoTime() - start;
+            }
+            sender.join();
+            if (Files.size(target) != size) throw new IllegalStateException("接收字节数不对: " + Files.size(target));
+            return elapsed;
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    private static void send(int port, long size) {
+        try (Socket s = new Socket("127.0.0.1", port);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024))) {
+            dos.writeUTF("bench.bin");
+            dos.writeLong(size);
+            byte[] chunk = new byte[64 * 1024];
+            for (long sent = 0; sent < size; sent += chunk.length) {
+                dos.write(chunk, 0, (int) Math.min(chunk.length, size - sent));
+            }
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}